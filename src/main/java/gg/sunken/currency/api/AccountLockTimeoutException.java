@@ -0,0 +1,25 @@
+package gg.sunken.currency.api;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Thrown when the accounts of an operation stay locked by other operations for longer than the lock timeout.
+ */
+public class AccountLockTimeoutException extends IllegalStateException {
+    private final List<UUID> users;
+
+    public AccountLockTimeoutException(Collection<UUID> users) {
+        super("Transaction in progress");
+        this.users = List.copyOf(users);
+    }
+
+    /**
+     * Get the users the operation tried to lock.
+     * @return The UUIDs of the users.
+     */
+    public List<UUID> users() {
+        return users;
+    }
+}
@@ -4,10 +4,13 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public interface Currency {
 
@@ -17,6 +20,12 @@ public interface Currency {
      */
     String name();
 
+    /**
+     * Get the stable index of the currency, assigned when it is registered with the service.
+     * @return The ordinal of the currency, -1 if it is not registered.
+     */
+    int ordinal();
+
     /**
      * Get the plural form of the currency.
      * @return The plural form of the currency.
@@ -61,6 +70,110 @@ public interface Currency {
      */
     double defaultBalance();
 
+    /**
+     * Get the number of decimal places the currency keeps. Balances and amounts are held as whole minor units,
+     * so with a precision of 2 a balance of 12.34 is 1234 minor units.
+     * @return The precision of the currency.
+     */
+    int precision();
+
+    /**
+     * Convert an amount to minor units, rounding to the precision of the currency.
+     * @param amount The amount in major units.
+     * @return The amount in minor units.
+     * @throws IllegalArgumentException If the amount is not finite or does not fit in minor units.
+     */
+    default long toMinor(double amount) {
+        if (!Double.isFinite(amount)) throw new IllegalArgumentException("Amount must be a finite number");
+
+        double minor = amount * Math.pow(10, precision());
+        // Math.round saturates at the bounds of a long instead of failing.
+        if (Math.abs(minor) >= 0x1p63) throw new IllegalArgumentException("Amount " + amount + " is out of range");
+        return Math.round(minor);
+    }
+
+    /**
+     * Convert minor units to an amount.
+     * @param minor The amount in minor units.
+     * @return The amount in major units.
+     */
+    default double toMajor(long minor) {
+        return minor / Math.pow(10, precision());
+    }
+
+    /**
+     * Get the balance of a player in minor units.
+     * @param uuid The UUID of the player.
+     * @return The balance of the player in minor units.
+     */
+    long balanceMinor(UUID uuid);
+
+    /**
+     * Pay an amount in minor units to a player.
+     * @param user The UUID of the player.
+     * @param amount The amount in minor units.
+     * @param reason The reason for the payment.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return The transaction object representing the payment.
+     */
+    CurrencyTransaction depositMinor(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Pay an amount in minor units to a player.
+     * @param user The UUID of the player.
+     * @param amount The amount in minor units.
+     * @param reason The reason for the payment.
+     * @return The transaction object representing the payment.
+     */
+    default CurrencyTransaction depositMinor(UUID user, long amount, String reason) {
+        return depositMinor(user, amount, reason, null, null);
+    }
+
+    /**
+     * Withdraw an amount in minor units from a player.
+     * @param user The UUID of the player.
+     * @param amount The amount in minor units.
+     * @param reason The reason for the withdrawal.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return The transaction object representing the withdrawal.
+     */
+    CurrencyTransaction withdrawMinor(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Withdraw an amount in minor units from a player.
+     * @param user The UUID of the player.
+     * @param amount The amount in minor units.
+     * @param reason The reason for the withdrawal.
+     * @return The transaction object representing the withdrawal.
+     */
+    default CurrencyTransaction withdrawMinor(UUID user, long amount, String reason) {
+        return withdrawMinor(user, amount, reason, null, null);
+    }
+
+    /**
+     * Set the balance of a player in minor units.
+     * @param user The UUID of the player.
+     * @param amount The balance in minor units.
+     * @param reason The reason for the balance change.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return The transaction object representing the balance change.
+     */
+    CurrencyTransaction setMinor(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Set the balance of a player in minor units.
+     * @param user The UUID of the player.
+     * @param amount The balance in minor units.
+     * @param reason The reason for the balance change.
+     * @return The transaction object representing the balance change.
+     */
+    default CurrencyTransaction setMinor(UUID user, long amount, String reason) {
+        return setMinor(user, amount, reason, null, null);
+    }
+
     /**
      * Get the balance of a player.
      * @param uuid The UUID of the player.
@@ -68,6 +181,13 @@ public interface Currency {
      */
     double balance(UUID uuid);
 
+    /**
+     * Get the balance of a player without blocking the calling thread.
+     * @param uuid The UUID of the player.
+     * @return A CompletableFuture completed with the balance of the player.
+     */
+    CompletableFuture<Double> balanceAsync(UUID uuid);
+
     /**
      * Pay a certain amount of currency from one player to another.
      * @param user The UUID of the player.
@@ -90,6 +210,28 @@ public interface Currency {
         return deposit(user, amount, reason, null, null);
     }
 
+    /**
+     * Pay a certain amount of currency to a player without blocking the calling thread.
+     * @param user The UUID of the player.
+     * @param amount The amount of currency to pay.
+     * @param reason The reason for the payment.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return A CompletableFuture completed with the transaction object representing the payment.
+     */
+    CompletableFuture<CurrencyTransaction> depositAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Pay a certain amount of currency to a player without blocking the calling thread.
+     * @param user The UUID of the player.
+     * @param amount The amount of currency to pay.
+     * @param reason The reason for the payment.
+     * @return A CompletableFuture completed with the transaction object representing the payment.
+     */
+    default CompletableFuture<CurrencyTransaction> depositAsync(UUID user, double amount, String reason) {
+        return depositAsync(user, amount, reason, null, null);
+    }
+
     /**
      * Set the balance of a player.
      * @param user The UUID of the player.
@@ -112,6 +254,28 @@ public interface Currency {
         return set(user, amount, reason, null, null);
     }
 
+    /**
+     * Set the balance of a player without blocking the calling thread.
+     * @param user The UUID of the player.
+     * @param amount The amount to set the balance to.
+     * @param reason The reason for the balance change.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return A CompletableFuture completed with the transaction object representing the balance change.
+     */
+    CompletableFuture<CurrencyTransaction> setAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Set the balance of a player without blocking the calling thread.
+     * @param user The UUID of the player.
+     * @param amount The amount to set the balance to.
+     * @param reason The reason for the balance change.
+     * @return A CompletableFuture completed with the transaction object representing the balance change.
+     */
+    default CompletableFuture<CurrencyTransaction> setAsync(UUID user, double amount, String reason) {
+        return setAsync(user, amount, reason, null, null);
+    }
+
     /**
      * Withdraw a certain amount of currency from a player.
      * @param user The UUID of the player.
@@ -134,6 +298,97 @@ public interface Currency {
         return withdraw(user, amount, reason, null, null);
     }
 
+    /**
+     * Withdraw a certain amount of currency from a player without blocking the calling thread.
+     * @param user The UUID of the player.
+     * @param amount The amount to withdraw.
+     * @param reason The reason for the withdrawal.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return A CompletableFuture completed with the transaction object representing the withdrawal.
+     */
+    CompletableFuture<CurrencyTransaction> withdrawAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Withdraw a certain amount of currency from a player without blocking the calling thread.
+     * @param user The UUID of the player.
+     * @param amount The amount to withdraw.
+     * @param reason The reason for the withdrawal.
+     * @return A CompletableFuture completed with the transaction object representing the withdrawal.
+     */
+    default CompletableFuture<CurrencyTransaction> withdrawAsync(UUID user, double amount, String reason) {
+        return withdrawAsync(user, amount, reason, null, null);
+    }
+
+    /**
+     * Move a certain amount of currency from one player to another. Both legs share a generated linker id.
+     * @param from The UUID of the player paying.
+     * @param to The UUID of the player receiving.
+     * @param amount The amount of currency to move.
+     * @param fromReason The reason recorded on the withdrawal.
+     * @param toReason The reason recorded on the deposit.
+     * @param linkerReason A reason recorded on both legs.
+     * @return The transfer, including the balances of both players afterwards.
+     */
+    CurrencyTransfer transfer(UUID from, UUID to, double amount, String fromReason, String toReason, @Nullable String linkerReason);
+
+    /**
+     * Move a certain amount of currency from one player to another. Both legs share a generated linker id.
+     * @param from The UUID of the player paying.
+     * @param to The UUID of the player receiving.
+     * @param amount The amount of currency to move.
+     * @param reason The reason for the transfer.
+     * @return The transfer, including the balances of both players afterwards.
+     */
+    default CurrencyTransfer transfer(UUID from, UUID to, double amount, String reason) {
+        return transfer(from, to, amount, reason, reason, null);
+    }
+
+    /**
+     * Move a certain amount of currency from one player to another without blocking the calling thread.
+     * @param from The UUID of the player paying.
+     * @param to The UUID of the player receiving.
+     * @param amount The amount of currency to move.
+     * @param fromReason The reason recorded on the withdrawal.
+     * @param toReason The reason recorded on the deposit.
+     * @param linkerReason A reason recorded on both legs.
+     * @return A CompletableFuture completed with the transfer.
+     */
+    CompletableFuture<CurrencyTransfer> transferAsync(UUID from, UUID to, double amount, String fromReason, String toReason, @Nullable String linkerReason);
+
+    /**
+     * Pay currency to many players at once. Entries are written in bulk and are not linked to each other.
+     * @param amounts The amount to pay to each player.
+     * @param reason The reason for the payments.
+     * @return The transaction for each player, with type {@link CurrencyTransactionType#FAILED} for entries that were not applied.
+     */
+    Map<UUID, CurrencyTransaction> depositAll(Map<UUID, Double> amounts, String reason);
+
+    /**
+     * Pay currency to many players at once without blocking the calling thread.
+     * @param amounts The amount to pay to each player.
+     * @param reason The reason for the payments.
+     * @return A CompletableFuture completed with the transaction for each player.
+     */
+    CompletableFuture<Map<UUID, CurrencyTransaction>> depositAllAsync(Map<UUID, Double> amounts, String reason);
+
+    /**
+     * Withdraw currency from many players at once. Entries are written in bulk and are not linked to each other.
+     * Players who cannot cover their amount get a failed entry instead of an exception.
+     * @param amounts The amount to withdraw from each player.
+     * @param reason The reason for the withdrawals.
+     * @return The transaction for each player, with type {@link CurrencyTransactionType#FAILED} for entries that were not applied.
+     */
+    Map<UUID, CurrencyTransaction> withdrawAll(Map<UUID, Double> amounts, String reason);
+
+    /**
+     * Withdraw currency from many players at once without blocking the calling thread.
+     * @param amounts The amount to withdraw from each player.
+     * @param reason The reason for the withdrawals.
+     * @return A CompletableFuture completed with the transaction for each player.
+     */
+    CompletableFuture<Map<UUID, CurrencyTransaction>> withdrawAllAsync(Map<UUID, Double> amounts, String reason);
+
     /**
      * If the currency has a balance for a player.
      * @param uniqueId The UUID of the player.
@@ -144,6 +399,16 @@ public interface Currency {
         return balance(uniqueId) >= amount;
     }
 
+    /**
+     * If the currency has a balance for a player, without blocking the calling thread.
+     * @param uniqueId The UUID of the player.
+     * @param amount The amount to check for.
+     * @return A CompletableFuture completed with true if the player has the amount, false otherwise.
+     */
+    default CompletableFuture<Boolean> hasAsync(@NotNull UUID uniqueId, double amount) {
+        return balanceAsync(uniqueId).thenApply(balance -> balance >= amount);
+    }
+
     /**
      * Invalidate a transaction.
      * @param transactionId The ID of the transaction to invalidate.
@@ -157,7 +422,8 @@ public interface Currency {
     void validateTransaction(UUID transactionId);
 
     /**
-     * Get the transactions of a player.
+     * Get the transactions of a player. Skipped transactions are still read by the database, use
+     * {@link #getTransactionsPage(UUID, int, String)} to page through a long history.
      * @param user The UUID of the player.
      * @param limit The number of transactions to get.
      * @param skip The number of transactions to skip.
@@ -175,7 +441,8 @@ public interface Currency {
     }
 
     /**
-     * Get the deleted transactions of a player.
+     * Get the deleted transactions of a player. Skipped transactions are still read by the database, use
+     * {@link #getDeletedTransactionsPage(UUID, int, String)} to page through a long history.
      * @param user The UUID of the player.
      * @param limit The number of transactions to get.
      * @param skip The number of transactions to skip.
@@ -192,6 +459,26 @@ public interface Currency {
         return getDeletedTransactions(user, 0, 0);
     }
 
+    /**
+     * Get a page of the transactions of a player, newest first.
+     * @param user The UUID of the player.
+     * @param limit The number of transactions on the page.
+     * @param pageToken The token of the page from {@link CurrencyTransactionPage#nextPageToken()}, null for the first page.
+     * @return The page of transactions.
+     * @throws IllegalArgumentException If the page token is invalid.
+     */
+    CurrencyTransactionPage getTransactionsPage(UUID user, int limit, @Nullable String pageToken);
+
+    /**
+     * Get a page of the deleted transactions of a player, newest first.
+     * @param user The UUID of the player.
+     * @param limit The number of transactions on the page.
+     * @param pageToken The token of the page from {@link CurrencyTransactionPage#nextPageToken()}, null for the first page.
+     * @return The page of deleted transactions.
+     * @throws IllegalArgumentException If the page token is invalid.
+     */
+    CurrencyTransactionPage getDeletedTransactionsPage(UUID user, int limit, @Nullable String pageToken);
+
     /**
      * Get a transaction by its ID.
      * @param transactionId The ID of the transaction.
@@ -228,11 +515,51 @@ public interface Currency {
     List<UUID> recalculateBalance(UUID user);
 
     /**
-     * Get the transaction history of a player.
+     * Stream the transaction history of a player, oldest first. The cursor reads from the database on the calling
+     * thread and has to be closed.
      * @param user The UUID of the player.
-     * @return A list of transactions for the player.
+     * @return A cursor over the transactions for the player.
      */
-    List<CurrencyTransaction> history(UUID user);
+    default CurrencyTransactionCursor history(UUID user) {
+        return history(user, 0);
+    }
+
+    /**
+     * Stream the transaction history of a player, oldest first. The cursor reads from the database on the calling
+     * thread and has to be closed.
+     * @param user The UUID of the player.
+     * @param batchSize The number of transactions fetched per round trip, 0 for the database default.
+     * @return A cursor over the transactions for the player.
+     */
+    CurrencyTransactionCursor history(UUID user, int batchSize);
+
+    /**
+     * Stream the transaction history of a player, oldest first. The stream reads from the database on the calling
+     * thread and has to be closed.
+     * @param user The UUID of the player.
+     * @param batchSize The number of transactions fetched per round trip, 0 for the database default.
+     * @return A stream of the transactions for the player.
+     */
+    default Stream<CurrencyTransaction> historyStream(UUID user, int batchSize) {
+        return history(user, batchSize).stream();
+    }
+
+    /**
+     * Visit the transaction history of a player, oldest first, without blocking the calling thread. Only one batch
+     * is held in memory at a time.
+     * @param user The UUID of the player.
+     * @param batchSize The number of transactions fetched per round trip, 0 for the database default.
+     * @param visitor Called with every transaction off the calling thread, returns false to stop early.
+     * @return A CompletableFuture completed with the number of visited transactions.
+     */
+    CompletableFuture<Long> scanHistoryAsync(UUID user, int batchSize, Predicate<CurrencyTransaction> visitor);
+
+    /**
+     * Get the transaction history of a player without blocking the calling thread.
+     * @param user The UUID of the player.
+     * @return A CompletableFuture completed with the transactions for the player, oldest first.
+     */
+    CompletableFuture<List<CurrencyTransaction>> historyAsync(UUID user);
 
     /**
      * Get the transaction history of a linker id
@@ -249,6 +576,14 @@ public interface Currency {
      */
     List<CurrencyUser> getTopBalances(int limit, int skip);
 
+    /**
+     * Get the top balances of the currency without blocking the calling thread.
+     * @param limit The number of balances to get.
+     * @param skip The number of balances to skip.
+     * @return A CompletableFuture completed with the currency users with the top balances.
+     */
+    CompletableFuture<List<CurrencyUser>> getTopBalancesAsync(int limit, int skip);
+
     /**
      * Get the amount of currency users.
      * @return The amount of currency users.
@@ -256,11 +591,27 @@ public interface Currency {
     long currencyUserCount();
 
     /**
-     * Run a transaction
+     * Run a transaction. Writes made through the context are committed together when the block returns,
+     * a block with a single write skips the database session entirely.
+     * @param transaction The transaction to run.
+     * @return A CompletableFuture that will be completed when the transaction is done, true if the transaction was successful, false if it failed.
+     */
+    CompletableFuture<Boolean> transaction(Consumer<CurrencyTransactionContext> transaction);
+
+    /**
+     * Run a block asynchronously. Operations called on the currency directly are not part of a database transaction,
+     * use {@link #transaction(Consumer)} for operations that have to be committed together.
      * @param transactionRunnable The transaction to run.
      * @return A CompletableFuture that will be completed when the transaction is done, true if the transaction was successful, false if it failed.
      */
-    CompletableFuture<Boolean> transaction(Runnable transactionRunnable);
+    default CompletableFuture<Boolean> transaction(Runnable transactionRunnable) {
+        return transaction(context -> transactionRunnable.run());
+    }
+
+    /**
+     * Flush any pending writes and release the resources held by this currency.
+     */
+    void close();
 
     /**
      * Helper function to get a currency user from the cache.
@@ -294,6 +645,6 @@ public interface Currency {
                 }
             }
             return true;
-        });
+        }, CurrencyApi.getService().executor());
     }
 }
\ No newline at end of file
@@ -1,5 +1,10 @@
 package gg.sunken.currency.api;
 
+import com.google.common.cache.CacheStats;
+import gg.sunken.currency.util.AccountLocks;
+import gg.sunken.currency.util.CurrencyExecutor;
+
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -27,5 +32,27 @@ public interface CurrencyService {
 
     void removeCachedUser(UUID uuid);
 
+    CacheStats cacheStats();
+
     CompletableFuture<CurrencyUser> getUserFromDatabase(UUID uuid);
+
+    CompletableFuture<Boolean> refreshIfStale(UUID uuid);
+
+    long coalescedLoads();
+
+    boolean isKnownUser(UUID uuid);
+
+    void markKnownUser(UUID uuid);
+
+    CompletableFuture<Void> provisionUsers(Collection<UUID> uuids);
+
+    void queueProvisioning(UUID uuid);
+
+    CompletableFuture<Void> flushProvisioning();
+
+    CurrencyExecutor executor();
+
+    AccountLocks accountLocks();
+
+    void shutdown();
 }
@@ -2,6 +2,8 @@ package gg.sunken.currency.api;
 
 import java.time.Instant;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
 import java.util.UUID;
 
 public interface CurrencyTransaction {
@@ -23,6 +25,12 @@ public interface CurrencyTransaction {
      */
     double amount();
 
+    /**
+     * Get the amount of currency in the transaction in minor units.
+     * @return The amount in minor units, see {@link Currency#precision()}.
+     */
+    long amountMinor();
+
     /**
      * Get the type of transaction.
      * @return The type of transaction.
@@ -58,4 +66,16 @@ public interface CurrencyTransaction {
      * @return The reason of the transaction.
      */
     Optional<String> linkerReason();
+
+    /**
+     * The balance of the user right after the transaction was applied, if the operation returned it.
+     * @return The resulting balance of the user.
+     */
+    OptionalDouble resultingBalance();
+
+    /**
+     * The balance of the user right after the transaction was applied in minor units, if the operation returned it.
+     * @return The resulting balance of the user in minor units.
+     */
+    OptionalLong resultingBalanceMinor();
 }
@@ -0,0 +1,90 @@
+package gg.sunken.currency.api;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * Operations bound to a single {@link Currency#transaction(java.util.function.Consumer)} block.
+ * Writes are buffered and committed together when the block returns, reads include the writes buffered so far.
+ */
+public interface CurrencyTransactionContext {
+
+    /**
+     * Get the currency this context belongs to.
+     * @return The currency of the context.
+     */
+    Currency currency();
+
+    /**
+     * Get the balance of a player, including the changes made in this context.
+     * @param user The UUID of the player.
+     * @return The balance of the player.
+     */
+    double balance(UUID user);
+
+    /**
+     * Pay a certain amount of currency to a player.
+     * @param user The UUID of the player.
+     * @param amount The amount of currency to pay.
+     * @param reason The reason for the payment.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return The transaction object representing the payment.
+     */
+    CurrencyTransaction deposit(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Pay a certain amount of currency to a player.
+     * @param user The UUID of the player.
+     * @param amount The amount of currency to pay.
+     * @param reason The reason for the payment.
+     * @return The transaction object representing the payment.
+     */
+    default CurrencyTransaction deposit(UUID user, double amount, String reason) {
+        return deposit(user, amount, reason, null, null);
+    }
+
+    /**
+     * Withdraw a certain amount of currency from a player.
+     * @param user The UUID of the player.
+     * @param amount The amount to withdraw.
+     * @param reason The reason for the withdrawal.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return The transaction object representing the withdrawal.
+     */
+    CurrencyTransaction withdraw(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Withdraw a certain amount of currency from a player.
+     * @param user The UUID of the player.
+     * @param amount The amount to withdraw.
+     * @param reason The reason for the withdrawal.
+     * @return The transaction object representing the withdrawal.
+     */
+    default CurrencyTransaction withdraw(UUID user, double amount, String reason) {
+        return withdraw(user, amount, reason, null, null);
+    }
+
+    /**
+     * Set the balance of a player.
+     * @param user The UUID of the player.
+     * @param amount The amount to set the balance to.
+     * @param reason The reason for the balance change.
+     * @param linkerId An id to link multiple transactions together.
+     * @param linkerReason A reason to link multiple transactions together.
+     * @return The transaction object representing the balance change.
+     */
+    CurrencyTransaction set(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason);
+
+    /**
+     * Set the balance of a player.
+     * @param user The UUID of the player.
+     * @param amount The amount to set the balance to.
+     * @param reason The reason for the balance change.
+     * @return The transaction object representing the balance change.
+     */
+    default CurrencyTransaction set(UUID user, double amount, String reason) {
+        return set(user, amount, reason, null, null);
+    }
+}
@@ -0,0 +1,29 @@
+package gg.sunken.currency.api;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Transactions streamed from the database in order. Only the current batch is held in memory, close the cursor
+ * once done with it, preferably with try-with-resources.
+ */
+public interface CurrencyTransactionCursor extends Iterator<CurrencyTransaction>, AutoCloseable {
+    /**
+     * Release the database cursor. Closing a cursor more than once has no effect.
+     */
+    @Override
+    void close();
+
+    /**
+     * View the remaining transactions as a sequential stream. Closing the stream closes the cursor, so use it in
+     * try-with-resources when it is not fully consumed.
+     * @return A stream over the remaining transactions.
+     */
+    default Stream<CurrencyTransaction> stream() {
+        Spliterator<CurrencyTransaction> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+}
@@ -0,0 +1,30 @@
+package gg.sunken.currency.api;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface CurrencyTransactionPage {
+    /**
+     * Get the transactions on this page, newest first.
+     * @return The transactions on this page.
+     */
+    List<CurrencyTransaction> transactions();
+
+    /**
+     * Get the token of the page after this one. Tokens are opaque and only valid for the same user and collection.
+     * @return The token of the next page, empty if this is the last page.
+     */
+    Optional<String> nextPageToken();
+
+    /**
+     * Get the number of this page, starting at 1.
+     * @return The page number.
+     */
+    int page();
+
+    /**
+     * Get the total number of transactions, counted when the first page was read.
+     * @return The total number of transactions.
+     */
+    long total();
+}
@@ -0,0 +1,43 @@
+package gg.sunken.currency.api;
+
+import java.util.UUID;
+
+public interface CurrencyTransfer {
+    /**
+     * Get the id linking both legs of the transfer.
+     * @return The linker id of the transfer.
+     */
+    UUID linkerId();
+
+    /**
+     * Get the withdrawal from the sender.
+     * @return The transaction object representing the withdrawal.
+     */
+    CurrencyTransaction withdrawal();
+
+    /**
+     * Get the deposit to the receiver.
+     * @return The transaction object representing the deposit.
+     */
+    CurrencyTransaction deposit();
+
+    /**
+     * Get the balance of the sender after the transfer.
+     * @return The balance of the sender.
+     */
+    double fromBalance();
+
+    /**
+     * Get the balance of the receiver after the transfer.
+     * @return The balance of the receiver.
+     */
+    double toBalance();
+
+    /**
+     * If both legs of the transfer were applied.
+     * @return True if the transfer was successful, false if an event cancelled it.
+     */
+    default boolean successful() {
+        return withdrawal().type() != CurrencyTransactionType.FAILED && deposit().type() != CurrencyTransactionType.FAILED;
+    }
+}
@@ -9,6 +9,13 @@ public interface CurrencyUser {
      */
     UUID userId();
 
+    /**
+     * Get the version of the stored user this instance was loaded at. The stored version increases with every
+     * write, a higher stored version means this instance is stale.
+     * @return The version of the user.
+     */
+    long version();
+
     /**
      * Get the balance of the user.
      * @param currency The currency to get the balance of.
@@ -16,6 +23,20 @@ public interface CurrencyUser {
      */
     double balance(Currency currency);
 
+    /**
+     * Get the balance of the user in minor units.
+     * @param currency The currency to get the balance of.
+     * @return The balance of the user in minor units.
+     */
+    long balanceMinor(Currency currency);
+
+    /**
+     * Set the balance of the user in minor units.
+     * @param currency The currency to set the balance of.
+     * @param amount The amount in minor units.
+     */
+    void setMinor(Currency currency, long amount);
+
     /**
      * Pay a certain amount of currency from one player to another.
      * @param currency The currency to pay.
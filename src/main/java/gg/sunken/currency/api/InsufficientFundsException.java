@@ -0,0 +1,43 @@
+package gg.sunken.currency.api;
+
+import java.util.UUID;
+
+/**
+ * Thrown when a withdrawal would take a balance below zero in a currency that does not allow negatives.
+ */
+public class InsufficientFundsException extends IllegalArgumentException {
+    private final UUID user;
+    private final Currency currency;
+    private final double amount;
+
+    public InsufficientFundsException(UUID user, Currency currency, double amount) {
+        super("Cannot withdraw more than the balance");
+        this.user = user;
+        this.currency = currency;
+        this.amount = amount;
+    }
+
+    /**
+     * Get the user the withdrawal was for.
+     * @return The UUID of the user.
+     */
+    public UUID user() {
+        return user;
+    }
+
+    /**
+     * Get the currency the withdrawal was for.
+     * @return The currency of the withdrawal.
+     */
+    public Currency currency() {
+        return currency;
+    }
+
+    /**
+     * Get the amount that could not be withdrawn.
+     * @return The amount of the withdrawal.
+     */
+    public double amount() {
+        return amount;
+    }
+}
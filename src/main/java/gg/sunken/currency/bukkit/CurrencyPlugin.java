@@ -1,11 +1,14 @@
 package gg.sunken.currency.bukkit;
 
-import gg.sunken.currency.api.Currency;
 import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.bukkit.cmd.BaseCommand;
+import gg.sunken.currency.bukkit.listeners.UserCacheListener;
 import gg.sunken.currency.bukkit.vault.VaultEconomy;
 import gg.sunken.currency.impl.MongoCurrency;
 import gg.sunken.currency.impl.MongoCurrencyService;
+import gg.sunken.currency.impl.ReactiveMongoCurrency;
+import gg.sunken.currency.impl.ReactiveMongoCurrencyService;
+import gg.sunken.currency.impl.mongo.Ids;
 import lombok.Getter;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.Bukkit;
@@ -15,13 +18,9 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 public final class CurrencyPlugin extends JavaPlugin {
 
-    public static final Map<UUID, UUID> TRANSACTION_LOCK = new ConcurrentHashMap<>();
     private File currenciesFile;
     @Getter private YamlConfiguration currenciesConfig;
 
@@ -38,20 +37,37 @@ public final class CurrencyPlugin extends JavaPlugin {
         String mongoUri = getConfig().getString("mongo-uri");
         String mongoDatabase = getConfig().getString("mongo-database");
 
-        CurrencyApi.setService(new MongoCurrencyService(mongoUri, mongoDatabase));
+        int ioConcurrency = getConfig().getInt("io-concurrency", 64);
+        boolean reactive = getConfig().getString("backend", "sync").equalsIgnoreCase("reactive");
+        long cacheMaximumSize = getConfig().getLong("cache.maximum-size", 10000);
+        long cacheExpireAfterAccess = getConfig().getLong("cache.expire-after-access", 30);
+        long unknownUserTtl = getConfig().getLong("cache.unknown-user-ttl", 30);
+        int lockStripes = getConfig().getInt("locks.stripes", 1024);
+        long lockTimeout = getConfig().getLong("locks.timeout", 5000);
+        int maxRecountComponentSize = getConfig().getInt("recount.max-component-size", 1000);
+        Ids.format(getConfig().getString("uuid-format", "string").equalsIgnoreCase("binary") ? Ids.Format.BINARY : Ids.Format.STRING);
+
+        CurrencyApi.setService(reactive
+                ? new ReactiveMongoCurrencyService(mongoUri, mongoDatabase, ioConcurrency, cacheMaximumSize, cacheExpireAfterAccess, unknownUserTtl, lockStripes, lockTimeout)
+                : new MongoCurrencyService(mongoUri, mongoDatabase, ioConcurrency, cacheMaximumSize, cacheExpireAfterAccess, unknownUserTtl, lockStripes, lockTimeout));
 
         for (String key : currenciesConfig.getKeys(false)) {
-            Currency currency = new MongoCurrency(
-                    currenciesConfig.getString(key + ".name"),
-                    currenciesConfig.getString(key + ".plural"),
-                    currenciesConfig.getString(key + ".symbol"),
-                    currenciesConfig.getBoolean(key + ".allows-negatives"),
-                    currenciesConfig.getBoolean(key + ".allows-pay"),
-                    currenciesConfig.getString(key + ".format"),
-                    currenciesConfig.getDouble(key + ".default"),
-                    mongoUri,
-                    mongoDatabase
-            );
+            String name = currenciesConfig.getString(key + ".name");
+            String plural = currenciesConfig.getString(key + ".plural");
+            String symbol = currenciesConfig.getString(key + ".symbol");
+            boolean allowsNegatives = currenciesConfig.getBoolean(key + ".allows-negatives");
+            boolean allowsPay = currenciesConfig.getBoolean(key + ".allows-pay");
+            String format = currenciesConfig.getString(key + ".format");
+            double defaultBalance = currenciesConfig.getDouble(key + ".default");
+            int precision = currenciesConfig.getInt(key + ".precision", 2);
+            boolean writeBehind = currenciesConfig.getBoolean(key + ".write-behind.enabled", false);
+            int batchSize = currenciesConfig.getInt(key + ".write-behind.batch-size", 500);
+            long flushInterval = currenciesConfig.getLong(key + ".write-behind.flush-interval", 50);
+
+            MongoCurrency currency = reactive
+                    ? new ReactiveMongoCurrency(name, plural, symbol, allowsNegatives, allowsPay, format, defaultBalance, precision, mongoUri, mongoDatabase, writeBehind, batchSize, flushInterval)
+                    : new MongoCurrency(name, plural, symbol, allowsNegatives, allowsPay, format, defaultBalance, precision, mongoUri, mongoDatabase, writeBehind, batchSize, flushInterval);
+            currency.maxRecountComponentSize(maxRecountComponentSize);
 
             CurrencyApi.getService().addCurrency(currency);
             Bukkit.getCommandMap().register("currency", new BaseCommand(currency));
@@ -75,15 +91,23 @@ public final class CurrencyPlugin extends JavaPlugin {
 
     @Override
     public void onEnable() {
-
+        Bukkit.getPluginManager().registerEvents(new UserCacheListener(this, getConfig().getLong("cache.evict-after-quit", 60) * 20L), this);
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> CurrencyApi.get().flushProvisioning(), 20L, 20L);
     }
 
     @Override
     public void onDisable() {
+        // Stop taking new work, then let the executor finish what is already queued.
         CurrencyApi.get().currencies()
-                .forEach((s, currency) ->
-                        Bukkit.getCommandMap().getKnownCommands().remove(currency.name())
-                );
+                .forEach((s, currency) -> {
+                    Bukkit.getCommandMap().getKnownCommands().remove(currency.name());
+                    if (currency instanceof MongoCurrency mongoCurrency) {
+                        mongoCurrency.stopRecount();
+                    }
+                });
+        CurrencyApi.get().shutdown();
+        // Each currency flushes its ledger writer before it releases its Mongo client.
+        CurrencyApi.get().currencies().forEach((s, currency) -> currency.close());
     }
 
     @Override
@@ -39,8 +39,7 @@ public class BalanceCommand extends CurrencyCommand {
             return;
         }
 
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            double balance = currency.balance(target.getUniqueId());
+        currency.balanceAsync(target.getUniqueId()).thenAccept(balance -> {
             if (commandSender instanceof Player player && player.getUniqueId().equals(target.getUniqueId())) {
                 sendLang(commandSender, "balance", new Placeholders().add("balance", currency.format(balance)));
                 return;
@@ -1,6 +1,7 @@
 package gg.sunken.currency.bukkit.cmd;
 
 import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.api.CurrencyUser;
 import gg.sunken.currency.util.Placeholders;
 import org.bukkit.Bukkit;
@@ -33,7 +34,7 @@ public class BalanceTopCommand extends CurrencyCommand {
         }
 
         int finalPage = page;
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+        CurrencyApi.getService().executor().execute(() -> {
             List<CurrencyUser> balances = currency.getTopBalances(15, (finalPage-1) * 15);
 
             if (balances.isEmpty()) {
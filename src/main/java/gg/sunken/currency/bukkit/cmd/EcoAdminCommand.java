@@ -14,10 +14,14 @@ public class EcoAdminCommand extends CurrencyCommand {
         super(currency, "ecoadmin");
         addSubCommand(new EcoAdminReloadCommand(currency));
         addSubCommand(new EcoAdminDeletedTransactionHistoryCommand(currency));
+        addSubCommand(new EcoAdminMigrateUuidsCommand(currency));
+        addSubCommand(new EcoAdminRecountAllCommand(currency));
         addSubCommand(new EcoAdminRecountUserCommand(currency));
         addSubCommand(new EcoAdminRedoCommand(currency));
+        addSubCommand(new EcoAdminStatsCommand(currency));
         addSubCommand(new EcoAdminTransactionHistoryCommand(currency));
         addSubCommand(new EcoAdminUndoCommand(currency));
+        addSubCommand(new EcoAdminVerifyCommand(currency));
     }
 
     @Override
@@ -1,7 +1,10 @@
 package gg.sunken.currency.bukkit.cmd;
 
+import gg.sunken.currency.api.AccountLockTimeoutException;
 import gg.sunken.currency.api.Currency;
-import gg.sunken.currency.bukkit.CurrencyPlugin;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.api.CurrencyTransfer;
+import gg.sunken.currency.api.InsufficientFundsException;
 import gg.sunken.currency.util.Placeholders;
 import gg.sunken.currency.util.Predicates;
 import lombok.extern.java.Log;
@@ -11,7 +14,6 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
-import java.util.UUID;
 
 @Log
 public class PayCommand extends CurrencyCommand {
@@ -47,10 +49,6 @@ public class PayCommand extends CurrencyCommand {
             return;
         }
 
-        if (!acquireTransactionLock(player, commandSender)) {
-            return;
-        }
-
         processTransactionAsync(player, target, amount, commandSender);
     }
 
@@ -90,6 +88,11 @@ public class PayCommand extends CurrencyCommand {
             sendLang(sender, "invalid-amount", new Placeholders().add("amount", args[1]));
             return null;
         }
+
+        if (!Double.isFinite(amount)) {
+            sendLang(sender, "invalid-amount", new Placeholders().add("amount", args[1]));
+            return null;
+        }
         return amount;
     }
 
@@ -101,82 +104,36 @@ public class PayCommand extends CurrencyCommand {
         return true;
     }
 
-    private boolean acquireTransactionLock(Player player, CommandSender sender) {
-        UUID uuid = UUID.randomUUID();
-        if (CurrencyPlugin.TRANSACTION_LOCK.putIfAbsent(player.getUniqueId(), uuid) != null) {
-            sendLang(sender, "transaction-failed", new Placeholders().add("error", "Transaction in progress"));
-            return false;
-        }
-
-        if (CurrencyPlugin.TRANSACTION_LOCK.get(player.getUniqueId()) != uuid) {
-            sendLang(sender, "transaction-failed", new Placeholders().add("error", "Transaction in progress"));
-            return false;
-        }
-
-        return true;
-    }
-
     private void processTransactionAsync(Player player, Player target, double amount, CommandSender sender) {
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            if (!currency.has(player.getUniqueId(), amount)) {
+        CurrencyApi.getService().executor().execute(() -> {
+            try {
+                CurrencyTransfer transfer = currency.transfer(player.getUniqueId(), target.getUniqueId(), amount,
+                        "Payment to " + target.getName(), "Payment from " + player.getName(),
+                        "Payment from " + player.getName() + " to " + target.getName());
+                handleTransferResult(transfer, player, target, amount, sender);
+            } catch (InsufficientFundsException e) {
                 sendLang(sender, "insufficient-funds", new Placeholders().add("amount", currency.format(amount)));
-                cleanupTransactionLock(player);
-                return;
+            } catch (AccountLockTimeoutException e) {
+                sendLang(sender, "transaction-failed", new Placeholders().add("error", e.getMessage()));
+            } catch (Exception e) {
+                handleTransactionException(e, player, target, sender);
             }
-
-            processTransaction(player, target, amount, sender);
         });
     }
 
-    private void processTransaction(Player player, Player target, double amount, CommandSender sender) {
-        UUID linkerId = UUID.randomUUID();
-        currency.transaction(() -> performPaymentTransaction(player, target, amount, linkerId))
-                .thenAccept(success -> handleTransactionResult(success, player, target, amount, sender, linkerId))
-          .exceptionally(throwable -> handleTransactionException(throwable, player, target, sender));
-    }
-
-    private void performPaymentTransaction(Player player, Player target, double amount, UUID linkerId) {
-        currency.withdraw(player.getUniqueId(), amount, "Payment to " + target.getName(), linkerId,
-                          "Linked to payment to " + target.getName());
-        currency.deposit(target.getUniqueId(), amount, "Payment from " + player.getName(), linkerId,
-                         "Linked to payment from " + player.getName());
-    }
-
-    private void handleTransactionResult(boolean success, Player player, Player target, double amount, 
-                                         CommandSender sender, UUID linkerId) {
-        if (!success) {
+    private void handleTransferResult(CurrencyTransfer transfer, Player player, Player target, double amount, CommandSender sender) {
+        if (!transfer.successful()) {
             sendLang(sender, "payment-failed", new Placeholders().add("error", "Transaction failed"));
             log.warning("Failed to process payment for " + player.getName() + " to " + target.getName());
-            cleanupTransactionLock(player);
             return;
         }
 
-        updateCache(player, target, amount, linkerId);
         sendLang(sender, "payment-success", new Placeholders().add("amount", amount).add("player", target.getName()));
-        cleanupTransactionLock(player);
     }
 
-    private Void handleTransactionException(Throwable throwable, Player player, Player target, CommandSender sender) {
+    private void handleTransactionException(Throwable throwable, Player player, Player target, CommandSender sender) {
         sendLang(sender, "payment-failed", new Placeholders().add("error", throwable.getMessage()));
-        log.warning("Payment processing failed: " + throwable.getMessage());
-        cleanupTransactionLock(player);
-        return null;
-    }
-
-    private void updateCache(Player player, Player target, double amount, UUID linkerId) {
-        currency.forCacheUser(target.getUniqueId(), user -> {
-            user.deposit(currency, amount, "Payment from " + player.getName(), linkerId,
-                         "Linked to payment from " + player.getName());
-        });
-
-        currency.forCacheUser(player.getUniqueId(), user -> {
-            user.withdraw(currency, amount, "Payment to " + target.getName(), linkerId,
-                          "Linked to payment to " + target.getName());
-        });
-    }
-
-    private void cleanupTransactionLock(Player player) {
-        CurrencyPlugin.TRANSACTION_LOCK.remove(player.getUniqueId());
+        log.warning("Payment processing failed for " + player.getName() + " to " + target.getName() + ": " + throwable.getMessage());
     }
 
     @Override
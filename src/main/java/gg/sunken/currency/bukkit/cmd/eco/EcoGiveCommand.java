@@ -1,6 +1,9 @@
 package gg.sunken.currency.bukkit.cmd.eco;
 
 import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransactionType;
 import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
 import gg.sunken.currency.util.Placeholders;
 import lombok.extern.java.Log;
@@ -10,8 +13,12 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 @Log
 public class EcoGiveCommand extends CurrencyCommand {
@@ -29,6 +36,11 @@ public class EcoGiveCommand extends CurrencyCommand {
         }
 
         String targetName = args[0];
+        if (targetName.equals("*") || targetName.startsWith("@")) {
+            giveAll(commandSender, targetName, args);
+            return;
+        }
+
         OfflinePlayer target = Bukkit.getOfflinePlayerIfCached(targetName);
 
         if (target == null) {
@@ -36,24 +48,14 @@ public class EcoGiveCommand extends CurrencyCommand {
             return;
         }
 
-        double amount;
-        try {
-            amount = Double.parseDouble(args[1]);
-        } catch (NumberFormatException e) {
-            sendLang(commandSender, "invalid-amount", new Placeholders().add("amount", args[1]));
-            return;
-        }
-
-        if (amount < 0 && !this.currency.allowsNegatives()) {
-            sendLang(commandSender, "negative-balance-not-allowed", new Placeholders().add("amount", args[1]));
-            return;
-        }
+        Double amount = parseAmount(args, commandSender);
+        if (amount == null) return;
 
         String reason = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
 
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            this.currency.transaction(() -> {
-                this.currency.deposit(target.getUniqueId(), amount, reason);
+        CurrencyApi.getService().executor().execute(() -> {
+            this.currency.transaction(context -> {
+                context.deposit(target.getUniqueId(), amount, reason);
             }).thenAccept((result) -> {
                 if (!result) {
                     sendLang(commandSender, "transaction-failed", new Placeholders().add("error", "Failed to deposit currency"));
@@ -67,6 +69,74 @@ public class EcoGiveCommand extends CurrencyCommand {
         });
     }
 
+    // /coins eco give <* | selector> <amount> <reason>
+    private void giveAll(@NotNull CommandSender commandSender, @NotNull String selector, @NotNull String[] args) {
+        List<Player> targets;
+        try {
+            targets = selector.equals("*")
+                    ? new ArrayList<>(Bukkit.getOnlinePlayers())
+                    : Bukkit.selectEntities(commandSender, selector).stream()
+                            .filter(entity -> entity instanceof Player)
+                            .map(entity -> (Player) entity)
+                            .toList();
+        } catch (IllegalArgumentException e) {
+            sendLang(commandSender, "player-not-found", new Placeholders().add("player", selector));
+            return;
+        }
+
+        if (targets.isEmpty()) {
+            sendLang(commandSender, "player-not-found", new Placeholders().add("player", selector));
+            return;
+        }
+
+        Double amount = parseAmount(args, commandSender);
+        if (amount == null) return;
+
+        String reason = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
+        Map<UUID, Double> amounts = new LinkedHashMap<>();
+        for (Player target : targets) {
+            amounts.put(target.getUniqueId(), amount);
+        }
+
+        CurrencyApi.getService().executor().execute(() -> {
+            try {
+                Map<UUID, CurrencyTransaction> results = this.currency.depositAll(amounts, reason);
+                long failed = results.values().stream()
+                        .filter(transaction -> transaction.type() == CurrencyTransactionType.FAILED)
+                        .count();
+
+                sendLang(commandSender, "eco-give-all-success", new Placeholders()
+                        .add("count", String.valueOf(results.size() - failed))
+                        .add("failed", String.valueOf(failed))
+                        .add("amount", String.valueOf(amount))
+                        .add("reason", reason));
+            } catch (Exception e) {
+                sendLang(commandSender, "transaction-failed", new Placeholders().add("error", e.getMessage()));
+                log.warning("Failed to process eco give for " + selector + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Parse the amount to give, shared by the single player and the selector path.
+     * @return The amount, or null if it is invalid and the sender was told.
+     */
+    private Double parseAmount(String[] args, CommandSender sender) {
+        double amount;
+        try {
+            amount = Double.parseDouble(args[1]);
+        } catch (NumberFormatException e) {
+            sendLang(sender, "invalid-amount", new Placeholders().add("amount", args[1]));
+            return null;
+        }
+
+        if (!Double.isFinite(amount) || amount <= 0) {
+            sendLang(sender, "invalid-amount", new Placeholders().add("amount", args[1]));
+            return null;
+        }
+        return amount;
+    }
+
     @Override
     public @NotNull List<String> executeTabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
         if (args.length == 0) {
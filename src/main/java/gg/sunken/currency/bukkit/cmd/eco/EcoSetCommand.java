@@ -1,6 +1,8 @@
 package gg.sunken.currency.bukkit.cmd.eco;
 
 import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.api.CurrencyTransactionType;
 import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
 import gg.sunken.currency.util.Placeholders;
 import lombok.extern.java.Log;
@@ -44,6 +46,11 @@ public class EcoSetCommand extends CurrencyCommand {
             return;
         }
 
+        if (!Double.isFinite(amount)) {
+            sendLang(commandSender, "invalid-amount", new Placeholders().add("amount", args[1]));
+            return;
+        }
+
         if (amount < 0 && !this.currency.allowsNegatives()) {
             sendLang(commandSender, "negative-balance-not-allowed", new Placeholders().add("amount", args[2]));
             return;
@@ -51,21 +58,15 @@ public class EcoSetCommand extends CurrencyCommand {
 
         String reason = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
 
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            this.currency.transaction(() -> {
-                this.currency.set(target.getUniqueId(), amount, reason);
-            }).thenAccept((result) -> {
-                if (!result) {
+        CurrencyApi.getService().executor().execute(() -> {
+            this.currency.setAsync(target.getUniqueId(), amount, reason).thenAccept((transaction) -> {
+                if (transaction.type() == CurrencyTransactionType.FAILED) {
                     sendLang(commandSender, "eco-set-error", new Placeholders()
                             .add("player", targetName)
                             .add("error", "Transaction failed"));
                     return;
                 }
 
-                this.currency.forCacheUser(target.getUniqueId(), (user) -> {
-                    user.set(this.currency, amount, reason);
-                });
-
                 sendLang(commandSender, "eco-set-success", new Placeholders()
                         .add("player", targetName)
                         .add("amount", this.currency.format(amount))
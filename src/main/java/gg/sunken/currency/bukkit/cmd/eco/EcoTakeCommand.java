@@ -1,6 +1,7 @@
 package gg.sunken.currency.bukkit.cmd.eco;
 
 import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
 import gg.sunken.currency.util.Placeholders;
 import lombok.extern.java.Log;
@@ -44,6 +45,11 @@ public class EcoTakeCommand extends CurrencyCommand {
             return;
         }
 
+        if (!Double.isFinite(amount)) {
+            sendLang(commandSender, "invalid-amount", new Placeholders().add("amount", args[2]));
+            return;
+        }
+
         if (amount < 0 && !this.currency.allowsNegatives()) {
             sendLang(commandSender, "negative-balance-not-allowed", new Placeholders().add("amount", args[2]));
             return;
@@ -51,9 +57,9 @@ public class EcoTakeCommand extends CurrencyCommand {
 
         String reason = String.join(" ", Arrays.copyOfRange(args, 3, args.length));
 
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            this.currency.transaction(() -> {
-                this.currency.withdraw(target.getUniqueId(), amount, reason);
+        CurrencyApi.getService().executor().execute(() -> {
+            this.currency.transaction(context -> {
+                context.withdraw(target.getUniqueId(), amount, reason);
             }).thenAccept((result) -> {
                 if (!result) {
                     sendLang(commandSender, "transaction-failed", new Placeholders().add("error", "Failed to withdraw currency"));
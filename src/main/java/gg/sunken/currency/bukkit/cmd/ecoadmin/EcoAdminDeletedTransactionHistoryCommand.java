@@ -1,7 +1,9 @@
 package gg.sunken.currency.bukkit.cmd.ecoadmin;
 
 import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransactionPage;
 import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
 import gg.sunken.currency.util.Placeholders;
 import gg.sunken.currency.util.Predicates;
@@ -20,7 +22,7 @@ public class EcoAdminDeletedTransactionHistoryCommand extends CurrencyCommand {
     }
 
     @Override
-    // hist <user> <page>
+    // hist <user> [page token]
     public void executeCommand(@NotNull CommandSender commandSender, @NotNull String label, @NotNull String[] args) {
 
         OfflinePlayer target;
@@ -39,37 +41,27 @@ public class EcoAdminDeletedTransactionHistoryCommand extends CurrencyCommand {
             return;
         }
 
-        int page;
+        String pageToken = args.length <= 1 ? null : args[1];
 
-        if (args.length <= 1) {
-            page = 1;
-        } else {
+        CurrencyApi.getService().executor().execute(() -> {
+            CurrencyTransactionPage page;
             try {
-                page = Integer.parseInt(args[1]);
-            } catch (NumberFormatException e) {
-                sendLang(commandSender, "invalid-page", new Placeholders().add("page", args[0]));
+                page = currency.getDeletedTransactionsPage(target.getUniqueId(), 3, pageToken);
+            } catch (IllegalArgumentException e) {
+                sendLang(commandSender, "invalid-page", new Placeholders().add("page", pageToken));
                 return;
             }
-        }
-
-        if (page < 1) {
-            sendLang(commandSender, "invalid-page", new Placeholders().add("page", args[0]));
-            return;
-        }
-
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            List<CurrencyTransaction> transactions = currency.getDeletedTransactions(target.getUniqueId(), 3, (page - 1) * 3);
 
+            List<CurrencyTransaction> transactions = page.transactions();
             if (transactions.isEmpty()) {
                 sendLang(commandSender, "transactionhistory-empty", new Placeholders().add("player", target.getName()));
                 return;
             }
 
-            long transactionsCount = currency.deletedTransactionsCount(target.getUniqueId());
             sendLang(commandSender, "deletedtransactionhistory-header", new Placeholders()
                     .add("player", target.getName())
-                    .add("page", String.valueOf(page))
-                    .add("total", String.valueOf(transactionsCount))
+                    .add("page", String.valueOf(page.page()))
+                    .add("total", String.valueOf(page.total()))
             );
 
             for (int i = 0; i < transactions.size(); i++) {
@@ -92,10 +84,15 @@ public class EcoAdminDeletedTransactionHistoryCommand extends CurrencyCommand {
 
             sendLang(commandSender, "deletedtransactionhistory-footer", new Placeholders()
                     .add("player", target.getName())
-                    .add("page", String.valueOf(page))
-                    .add("total", String.valueOf(transactionsCount))
-                    .add("total-pages", String.valueOf((transactionsCount + 2) / 3))
+                    .add("page", String.valueOf(page.page()))
+                    .add("total", String.valueOf(page.total()))
+                    .add("total-pages", String.valueOf((page.total() + 2) / 3))
             );
+
+            page.nextPageToken().ifPresent(token -> sendLang(commandSender, "deletedtransactionhistory-next", new Placeholders()
+                    .add("player", target.getName())
+                    .add("token", token)
+            ));
         });
     }
 
@@ -0,0 +1,48 @@
+package gg.sunken.currency.bukkit.cmd.ecoadmin;
+
+import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
+import gg.sunken.currency.impl.MongoCurrency;
+import gg.sunken.currency.impl.mongo.Ids;
+import gg.sunken.currency.util.Placeholders;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+public class EcoAdminMigrateUuidsCommand extends CurrencyCommand {
+
+    public EcoAdminMigrateUuidsCommand(@NotNull Currency currency) {
+        super(currency, "migrateuuids");
+    }
+
+    @Override
+    public void executeCommand(@NotNull CommandSender commandSender, @NotNull String label, @NotNull String[] args) {
+        if (!(currency instanceof MongoCurrency mongoCurrency)) {
+            sendLang(commandSender, "transaction-failed", new Placeholders().add("error", "Migration is not supported by this currency"));
+            return;
+        }
+        if (Ids.format() != Ids.Format.BINARY) {
+            sendLang(commandSender, "migrateuuids-not-binary");
+            return;
+        }
+
+        int batchSize = plugin.getConfig().getInt("uuid-migration.batch-size", 1000);
+        long pause = plugin.getConfig().getLong("uuid-migration.pause", 50);
+        sendLang(commandSender, "migrateuuids-started");
+        // The migration pauses between batches, so it runs on its own thread instead of holding an I/O slot.
+        Thread.ofVirtual().name("currency-uuid-migration").start(() -> {
+            try {
+                long moved = mongoCurrency.uuidMigration().run(batchSize, pause);
+                sendLang(commandSender, "migrateuuids-finished", new Placeholders().add("moved", String.valueOf(moved)));
+            } catch (Exception e) {
+                sendLang(commandSender, "transaction-failed", new Placeholders().add("error", "Migration failed: " + e.getMessage()));
+            }
+        });
+    }
+
+    @Override
+    public @NotNull List<String> executeTabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
+        return List.of();
+    }
+}
@@ -0,0 +1,81 @@
+package gg.sunken.currency.bukkit.cmd.ecoadmin;
+
+import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
+import gg.sunken.currency.impl.MongoCurrency;
+import gg.sunken.currency.impl.RecountJob;
+import gg.sunken.currency.util.Placeholders;
+import gg.sunken.currency.util.StringUtilsPaper;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+public class EcoAdminRecountAllCommand extends CurrencyCommand {
+
+    public EcoAdminRecountAllCommand(@NotNull Currency currency) {
+        super(currency, "recountall");
+    }
+
+    @Override
+    public void executeCommand(@NotNull CommandSender commandSender, @NotNull String label, @NotNull String[] args) {
+        if (args.length != 1) {
+            sendLang(commandSender, "recountall-usage");
+            return;
+        }
+
+        if (!(currency instanceof MongoCurrency mongoCurrency)) {
+            sendLang(commandSender, "transaction-failed", new Placeholders().add("error", "Recounting is not supported by this currency"));
+            return;
+        }
+
+        RecountJob job = mongoCurrency.recountJob(
+                plugin.getConfig().getInt("recount.concurrency", 8),
+                plugin.getConfig().getDouble("recount.rate-limit", 200),
+                plugin.getConfig().getInt("recount.batch-size", 500)
+        );
+
+        switch (args[0].toLowerCase()) {
+            case "start", "resume" -> {
+                boolean resume = args[0].equalsIgnoreCase("resume");
+                if (!job.start(resume)) {
+                    sendLang(commandSender, "recountall-running");
+                    return;
+                }
+                sendLang(commandSender, resume ? "recountall-resumed" : "recountall-started");
+            }
+            case "stop" -> {
+                if (!job.running()) {
+                    sendLang(commandSender, "recountall-not-running");
+                    return;
+                }
+                job.stop();
+                sendLang(commandSender, "recountall-stopped");
+            }
+            case "status" -> {
+                if (!job.running()) {
+                    sendLang(commandSender, "recountall-not-running");
+                    return;
+                }
+                int total = (int) Math.max(1, job.total());
+                int processed = (int) Math.min(total, job.processed());
+                sendLang(commandSender, "recountall-status", new Placeholders()
+                        .add("bar", StringUtilsPaper.getProgressBar(processed, total, 20, "|", "<#a7ff27>", "<gray>"))
+                        .add("processed", String.valueOf(job.processed()))
+                        .add("total", String.valueOf(job.total()))
+                        .add("failed", String.valueOf(job.failed()))
+                );
+            }
+            default -> sendLang(commandSender, "recountall-usage");
+        }
+    }
+
+    @Override
+    public @NotNull List<String> executeTabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
+        if (args.length <= 1) {
+            return List.of("start", "resume", "stop", "status");
+        }
+
+        return List.of();
+    }
+}
@@ -0,0 +1,40 @@
+package gg.sunken.currency.bukkit.cmd.ecoadmin;
+
+import com.google.common.cache.CacheStats;
+import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
+import gg.sunken.currency.util.CurrencyExecutor;
+import gg.sunken.currency.util.Placeholders;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+public class EcoAdminStatsCommand extends CurrencyCommand {
+
+    public EcoAdminStatsCommand(@NotNull Currency currency) {
+        super(currency, "stats");
+    }
+
+    @Override
+    public void executeCommand(@NotNull CommandSender commandSender, @NotNull String label, @NotNull String[] args) {
+        CurrencyExecutor executor = CurrencyApi.getService().executor();
+        CacheStats cacheStats = CurrencyApi.getService().cacheStats();
+        sendLang(commandSender, "stats", new Placeholders()
+                .add("io-active", String.valueOf(executor.activeTasks()))
+                .add("io-queued", String.valueOf(executor.queueDepth()))
+                .add("io-max", String.valueOf(executor.maxConcurrency()))
+                .add("cache-size", String.valueOf(CurrencyApi.getService().localUsersCache().size()))
+                .add("cache-hits", String.valueOf(cacheStats.hitCount()))
+                .add("cache-misses", String.valueOf(cacheStats.missCount()))
+                .add("cache-hit-rate", String.format("%.1f", cacheStats.hitRate() * 100))
+                .add("coalesced-loads", String.valueOf(CurrencyApi.getService().coalescedLoads()))
+        );
+    }
+
+    @Override
+    public @NotNull List<String> executeTabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
+        return List.of();
+    }
+}
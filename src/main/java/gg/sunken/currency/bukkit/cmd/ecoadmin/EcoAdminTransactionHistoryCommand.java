@@ -1,7 +1,9 @@
 package gg.sunken.currency.bukkit.cmd.ecoadmin;
 
 import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransactionPage;
 import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
 import gg.sunken.currency.util.Placeholders;
 import gg.sunken.currency.util.Predicates;
@@ -33,37 +35,27 @@ public class EcoAdminTransactionHistoryCommand extends CurrencyCommand {
             target = Bukkit.getOfflinePlayer(args[0]);
         }
 
-        int page;
+        String pageToken = args.length <= 1 ? null : args[1];
 
-        if (args.length <= 1) {
-            page = 1;
-        } else {
+        CurrencyApi.getService().executor().execute(() -> {
+            CurrencyTransactionPage page;
             try {
-                page = Integer.parseInt(args[1]);
-            } catch (NumberFormatException e) {
-                sendLang(commandSender, "invalid-page", new Placeholders().add("page", args[0]));
+                page = currency.getTransactionsPage(target.getUniqueId(), 3, pageToken);
+            } catch (IllegalArgumentException e) {
+                sendLang(commandSender, "invalid-page", new Placeholders().add("page", pageToken));
                 return;
             }
-        }
-
-        if (page < 1) {
-            sendLang(commandSender, "invalid-page", new Placeholders().add("page", args[0]));
-            return;
-        }
-
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            List<CurrencyTransaction> transactions = currency.getTransactions(target.getUniqueId(), 3, (page - 1) * 3);
 
+            List<CurrencyTransaction> transactions = page.transactions();
             if (transactions.isEmpty()) {
                 sendLang(commandSender, "transactionhistory-empty", new Placeholders().add("player", target.getName()));
                 return;
             }
 
-            long transactionsCount = currency.transactionsCount(target.getUniqueId());
             sendLang(commandSender, "transactionhistory-header", new Placeholders()
                     .add("player", target.getName())
-                    .add("page", String.valueOf(page))
-                    .add("total", String.valueOf(transactionsCount))
+                    .add("page", String.valueOf(page.page()))
+                    .add("total", String.valueOf(page.total()))
             );
 
             for (int i = 0; i < transactions.size(); i++) {
@@ -86,10 +78,15 @@ public class EcoAdminTransactionHistoryCommand extends CurrencyCommand {
 
             sendLang(commandSender, "transactionhistory-footer", new Placeholders()
                     .add("player", target.getName())
-                    .add("page", String.valueOf(page))
-                    .add("total", String.valueOf(transactionsCount))
-                    .add("total-pages", String.valueOf((transactionsCount + 2) / 3))
+                    .add("page", String.valueOf(page.page()))
+                    .add("total", String.valueOf(page.total()))
+                    .add("total-pages", String.valueOf((page.total() + 2) / 3))
             );
+
+            page.nextPageToken().ifPresent(token -> sendLang(commandSender, "transactionhistory-next", new Placeholders()
+                    .add("player", target.getName())
+                    .add("token", token)
+            ));
         });
     }
 
@@ -0,0 +1,60 @@
+package gg.sunken.currency.bukkit.cmd.ecoadmin;
+
+import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.bukkit.cmd.CurrencyCommand;
+import gg.sunken.currency.impl.MongoCurrency;
+import gg.sunken.currency.util.Placeholders;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+
+public class EcoAdminVerifyCommand extends CurrencyCommand {
+
+    public EcoAdminVerifyCommand(@NotNull Currency currency) {
+        super(currency, "verify");
+    }
+
+    @Override
+    public void executeCommand(@NotNull CommandSender commandSender, @NotNull String label, @NotNull String[] args) {
+        if (!(currency instanceof MongoCurrency mongoCurrency)) {
+            sendLang(commandSender, "transaction-failed", new Placeholders().add("error", "Verification is not supported by this currency"));
+            return;
+        }
+
+        Path report = plugin.getDataFolder().toPath()
+                .resolve("reports")
+                .resolve(currency.name().toLowerCase() + "-drift-" + System.currentTimeMillis() + ".csv");
+        sendLang(commandSender, "verify-started");
+        CurrencyApi.getService().executor().supply(() -> {
+            try {
+                return mongoCurrency.verifier().verify(report);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() == null ? error : error.getCause();
+                sendLang(commandSender, "transaction-failed", new Placeholders().add("error", "Verification failed: " + cause.getMessage()));
+                return;
+            }
+
+            sendLang(commandSender, "verify-finished", new Placeholders()
+                    .add("users", String.valueOf(result.users()))
+                    .add("drifted", String.valueOf(result.drifted()))
+                    .add("drift", BigDecimal.valueOf(result.totalDrift(), currency.precision()).toPlainString())
+                    .add("file", plugin.getDataFolder().toPath().relativize(report).toString())
+            );
+        });
+    }
+
+    @Override
+    public @NotNull List<String> executeTabComplete(@NotNull CommandSender sender, @NotNull String alias, @NotNull String[] args) throws IllegalArgumentException {
+        return List.of();
+    }
+}
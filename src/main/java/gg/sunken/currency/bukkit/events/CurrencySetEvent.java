@@ -3,6 +3,7 @@ package gg.sunken.currency.bukkit.events;
 import gg.sunken.currency.api.Currency;
 import lombok.Getter;
 import lombok.Setter;
+import org.bukkit.Bukkit;
 import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
 import org.bukkit.event.HandlerList;
@@ -10,6 +11,10 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.UUID;
 
+/**
+ * Called before a balance is overwritten. Single-user operations and transfers call it on the thread that started them, so calls made on
+ * the main thread fire it synchronously. Bulk operations and transaction blocks call it from a currency I/O thread.
+ */
 @Getter @Setter
 public class CurrencySetEvent extends Event implements Cancellable {
 
@@ -20,6 +25,7 @@ public class CurrencySetEvent extends Event implements Cancellable {
     private boolean cancelled = false;
 
     public CurrencySetEvent(@NotNull UUID who, Currency currency, double amount) {
+        super(!Bukkit.isPrimaryThread());
         this.user = who;
         this.currency = currency;
         this.amount = amount;
@@ -0,0 +1,66 @@
+package gg.sunken.currency.bukkit.listeners;
+
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.api.CurrencyUser;
+import gg.sunken.currency.impl.MongoCurrencyUser;
+import lombok.extern.java.Log;
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Keeps online players in the local user cache. Players are loaded while they log in and evicted a while after
+ * they quit, so a quick reconnect does not reload them.
+ */
+@Log
+public class UserCacheListener implements Listener {
+    private final Plugin plugin;
+    private final long evictAfterQuitTicks;
+
+    public UserCacheListener(Plugin plugin, long evictAfterQuitTicks) {
+        this.plugin = plugin;
+        this.evictAfterQuitTicks = evictAfterQuitTicks;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+
+        UUID uuid = event.getUniqueId();
+        try {
+            if (CurrencyApi.getService().getCachedUser(uuid).isPresent()) {
+                // Reconnecting players are still cached, pick up anything another server wrote meanwhile.
+                CurrencyApi.getService().refreshIfStale(uuid).join();
+                return;
+            }
+
+            CurrencyUser user = CurrencyApi.getService().getUserFromDatabase(uuid).join();
+            if (user == null) {
+                // New players start on the default balances and are written with the next provisioning batch.
+                user = MongoCurrencyUser.withDefaults(uuid, event.getName());
+                CurrencyApi.getService().queueProvisioning(uuid);
+            }
+
+            CurrencyApi.getService().addCachedUser(user);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Failed to load balances of " + event.getName(), e);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        Bukkit.getScheduler().runTaskLater(plugin, () -> {
+            if (Bukkit.getPlayer(uuid) == null) {
+                CurrencyApi.getService().removeCachedUser(uuid);
+            }
+        }, evictAfterQuitTicks);
+    }
+}
@@ -1,7 +1,11 @@
 package gg.sunken.currency.bukkit.vault;
 
+import gg.sunken.currency.api.AccountLockTimeoutException;
 import gg.sunken.currency.api.Currency;
+import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransactionType;
+import gg.sunken.currency.api.InsufficientFundsException;
 import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.economy.EconomyResponse;
 import org.bukkit.OfflinePlayer;
@@ -33,7 +37,7 @@ public class VaultEconomy implements Economy {
 
     @Override
     public int fractionalDigits() {
-        return 2;
+        return currency.precision();
     }
 
     @Override
@@ -118,8 +122,16 @@ public class VaultEconomy implements Economy {
 
     @Override
     public EconomyResponse withdrawPlayer(OfflinePlayer offlinePlayer, double v) {
-        CurrencyTransaction transaction = currency.withdraw(offlinePlayer.getUniqueId(), v, "Vault");
-        return new EconomyResponse(v, getBalance(offlinePlayer), EconomyResponse.ResponseType.SUCCESS, null);
+        CurrencyTransaction transaction;
+        try {
+            transaction = currency.withdraw(offlinePlayer.getUniqueId(), v, "Vault");
+        } catch (InsufficientFundsException e) {
+            return new EconomyResponse(0, cachedBalance(offlinePlayer), EconomyResponse.ResponseType.FAILURE, "Insufficient funds");
+        } catch (AccountLockTimeoutException e) {
+            return new EconomyResponse(0, cachedBalance(offlinePlayer), EconomyResponse.ResponseType.FAILURE, "Account is busy");
+        }
+
+        return response(transaction, offlinePlayer);
     }
 
     @Override
@@ -129,8 +141,7 @@ public class VaultEconomy implements Economy {
 
     @Override
     public EconomyResponse withdrawPlayer(OfflinePlayer offlinePlayer, String s, double v) {
-        CurrencyTransaction transaction = currency.withdraw(offlinePlayer.getUniqueId(), v, "Vault");
-        return new EconomyResponse(v, getBalance(offlinePlayer), EconomyResponse.ResponseType.SUCCESS, null);
+        return withdrawPlayer(offlinePlayer, v);
     }
 
     @Override
@@ -140,8 +151,14 @@ public class VaultEconomy implements Economy {
 
     @Override
     public EconomyResponse depositPlayer(OfflinePlayer offlinePlayer, double v) {
-        CurrencyTransaction transaction = currency.deposit(offlinePlayer.getUniqueId(), v, "Vault");
-        return new EconomyResponse(v, getBalance(offlinePlayer), EconomyResponse.ResponseType.SUCCESS, null);
+        CurrencyTransaction transaction;
+        try {
+            transaction = currency.deposit(offlinePlayer.getUniqueId(), v, "Vault");
+        } catch (AccountLockTimeoutException e) {
+            return new EconomyResponse(0, cachedBalance(offlinePlayer), EconomyResponse.ResponseType.FAILURE, "Account is busy");
+        }
+
+        return response(transaction, offlinePlayer);
     }
 
     @Override
@@ -151,8 +168,26 @@ public class VaultEconomy implements Economy {
 
     @Override
     public EconomyResponse depositPlayer(OfflinePlayer offlinePlayer, String s, double v) {
-        CurrencyTransaction transaction = currency.deposit(offlinePlayer.getUniqueId(), v, "Vault");
-        return new EconomyResponse(v, getBalance(offlinePlayer), EconomyResponse.ResponseType.SUCCESS, null);
+        return depositPlayer(offlinePlayer, v);
+    }
+
+    /**
+     * Get the balance for a failure response without another database read. Players that are not cached report 0,
+     * the response is failed either way.
+     */
+    private double cachedBalance(OfflinePlayer offlinePlayer) {
+        return CurrencyApi.getService().getCachedUser(offlinePlayer.getUniqueId())
+                .map(user -> user.balance(currency))
+                .orElse(0.0);
+    }
+
+    private EconomyResponse response(CurrencyTransaction transaction, OfflinePlayer offlinePlayer) {
+        if (transaction.type() == CurrencyTransactionType.FAILED) {
+            return new EconomyResponse(0, getBalance(offlinePlayer), EconomyResponse.ResponseType.FAILURE, "Transaction cancelled");
+        }
+
+        double balance = transaction.resultingBalance().orElseGet(() -> getBalance(offlinePlayer));
+        return new EconomyResponse(transaction.amount(), balance, EconomyResponse.ResponseType.SUCCESS, null);
     }
 
     @Override
@@ -0,0 +1,165 @@
+package gg.sunken.currency.impl;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import gg.sunken.currency.api.CurrencyTransactionType;
+import gg.sunken.currency.impl.mongo.Decimals;
+import gg.sunken.currency.impl.mongo.Ids;
+import lombok.extern.java.Log;
+import org.bson.Document;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares the stored balances of a currency against its ledger without taking any locks or writing to the
+ * database. The ledger is summed per user by one aggregation sorted by user, the users are read sorted by
+ * {@code _id}, and both cursors are merge-joined, so memory use does not grow with the number of users.
+ * <p>
+ * The expected balance is what a recount would write: the latest OVERRIDE of a user plus the payments and
+ * withdrawals from then on. Balances changed while the verifier runs can show up as drift, recounting the user
+ * tells whether the drift is real. Until the migration to binary ids is complete, a user whose documents are stored
+ * in both formats is compared once per format and shows up as drifted.
+ */
+@Log
+public class LedgerVerifier {
+    private final MongoCurrency currency;
+    private final MongoCollection<Document> userCollection;
+    private final MongoCollection<Document> transactionCollection;
+
+    LedgerVerifier(MongoCurrency currency, MongoCollection<Document> userCollection, MongoCollection<Document> transactionCollection) {
+        this.currency = currency;
+        // Verification is a long scan, secondaries can serve it without loading the primary.
+        this.userCollection = userCollection.withReadPreference(ReadPreference.secondaryPreferred());
+        this.transactionCollection = transactionCollection.withReadPreference(ReadPreference.secondaryPreferred());
+    }
+
+    /**
+     * Verify every user and write the users whose balance does not match the ledger to a report file.
+     * @param report The file to write the report to, replaced if it exists.
+     * @return The result of the verification.
+     * @throws IOException If the report could not be written.
+     */
+    public Result verify(Path report) throws IOException {
+        if (report.getParent() != null) {
+            Files.createDirectories(report.getParent());
+        }
+
+        long users = 0;
+        long drifted = 0;
+        long totalDrift = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(report);
+             MongoCursor<Document> stored = userCollection.find()
+                     .projection(new Document(currency.name(), 1))
+                     .sort(new Document("_id", 1))
+                     .batchSize(MongoCurrency.SCAN_BATCH_SIZE)
+                     .iterator();
+             MongoCursor<Document> ledger = transactionCollection.aggregate(pipeline())
+                     .allowDiskUse(true)
+                     .batchSize(MongoCurrency.SCAN_BATCH_SIZE)
+                     .iterator()) {
+            writer.write("user,stored,expected,drift");
+            writer.newLine();
+
+            Document user = stored.hasNext() ? stored.next() : null;
+            Document entry = ledger.hasNext() ? ledger.next() : null;
+            while (user != null || entry != null) {
+                int order = user == null ? 1 : entry == null ? -1 : Ids.compare(user.get("_id"), entry.get("_id"));
+                UUID id = Ids.read(order <= 0 ? user.get("_id") : entry.get("_id"));
+                // Ledger entries of a user without a stored balance are compared against 0.
+                boolean hasBalance = order <= 0 && user.containsKey(currency.name());
+                long balance = hasBalance ? currency.balanceOf(user) : 0;
+                long expected = order >= 0 ? expectedOf(entry) : 0;
+
+                if ((hasBalance || order >= 0) && balance != expected) {
+                    drifted++;
+                    totalDrift += balance - expected;
+                    writer.write(id + "," + format(balance) + "," + format(expected) + "," + format(balance - expected));
+                    writer.newLine();
+                }
+                users++;
+
+                if (order <= 0) user = stored.hasNext() ? stored.next() : null;
+                if (order >= 0) entry = ledger.hasNext() ? ledger.next() : null;
+                if (users % 100_000 == 0) {
+                    log.info("Verified " + users + " users of " + currency.name() + ", " + drifted + " drifted");
+                }
+            }
+        }
+
+        log.info("Verified " + users + " users of " + currency.name() + ", " + drifted + " drifted, report written to " + report);
+        return new Result(users, drifted, totalDrift);
+    }
+
+    /**
+     * Sum the ledger of every user from their latest override, sorted by user.
+     */
+    private List<Document> pipeline() {
+        Document isOverride = new Document("$eq", List.of("$type", CurrencyTransactionType.OVERRIDE.name()));
+        Document signedAmount = new Document("$cond", List.of(
+                new Document("$eq", List.of("$type", CurrencyTransactionType.WITHDRAWAL.name())),
+                new Document("$multiply", List.of("$amount", -1)),
+                "$amount"
+        ));
+        // $max compares documents field by field, so the latest override by (timestamp, _id) wins and users without
+        // one get null. Entries count when they come after it in the same order, exactly like a recount replays them.
+        Document checkpoint = new Document("$max", new Document("$cond", Arrays.asList(
+                isOverride,
+                new Document("timestamp", "$timestamp").append("id", "$_id").append("amount", "$amount"),
+                null
+        )));
+        Document afterCheckpoint = new Document("$or", List.of(
+                new Document("$eq", Arrays.asList("$checkpoint", null)),
+                new Document("$gt", List.of("$timestamp", "$checkpoint.timestamp")),
+                new Document("$and", List.of(
+                        new Document("$eq", List.of("$timestamp", "$checkpoint.timestamp")),
+                        new Document("$gt", List.of("$_id", "$checkpoint.id"))
+                ))
+        ));
+
+        return List.of(
+                new Document("$match", new Document("currency", currency.name())
+                        .append("type", new Document("$in", List.of(
+                                CurrencyTransactionType.PAYMENT.name(),
+                                CurrencyTransactionType.WITHDRAWAL.name(),
+                                CurrencyTransactionType.OVERRIDE.name()
+                        )))),
+                new Document("$setWindowFields", new Document("partitionBy", "$user")
+                        .append("output", new Document("checkpoint", checkpoint))),
+                new Document("$group", new Document("_id", "$user")
+                        .append("checkpoint", new Document("$first", "$checkpoint"))
+                        .append("total", new Document("$sum", new Document("$cond", List.of(
+                                new Document("$and", List.of(new Document("$not", List.of(isOverride)), afterCheckpoint)),
+                                signedAmount,
+                                0
+                        ))))),
+                new Document("$sort", new Document("_id", 1))
+        );
+    }
+
+    private long expectedOf(Document entry) {
+        Document checkpoint = entry.get("checkpoint", Document.class);
+        long start = checkpoint == null ? 0 : Decimals.toMinor(checkpoint.get("amount"), currency.precision());
+        return start + Decimals.toMinor(entry.get("total"), currency.precision());
+    }
+
+    private String format(long minor) {
+        return BigDecimal.valueOf(minor, currency.precision()).toPlainString();
+    }
+
+    /**
+     * The outcome of a verification.
+     * @param users The number of users verified.
+     * @param drifted The number of users whose stored balance does not match the ledger.
+     * @param totalDrift The sum of stored minus expected balances in minor units.
+     */
+    public record Result(long users, long drifted, long totalDrift) {
+    }
+}
@@ -2,18 +2,32 @@ package gg.sunken.currency.impl;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import gg.sunken.currency.api.*;
 import gg.sunken.currency.api.Currency;
-import gg.sunken.currency.bukkit.CurrencyPlugin;
 import gg.sunken.currency.bukkit.events.CurrencyGiveEvent;
 import gg.sunken.currency.bukkit.events.CurrencySetEvent;
 import gg.sunken.currency.bukkit.events.CurrencyTakeEvent;
+import gg.sunken.currency.impl.mongo.Decimals;
+import gg.sunken.currency.impl.mongo.Ids;
+import gg.sunken.currency.impl.mongo.IndexManager;
 import gg.sunken.currency.impl.mongo.MongoDriver;
-import gg.sunken.currency.util.SortedList;
+import gg.sunken.currency.impl.mongo.MongoLedgerWriter;
+import gg.sunken.currency.impl.mongo.UuidMigration;
+import gg.sunken.currency.util.AccountLocks;
+import gg.sunken.currency.util.CurrencyExecutor;
 import lombok.extern.java.Log;
 import org.bson.Document;
 import org.bukkit.Bukkit;
@@ -23,10 +37,19 @@ import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 @Log
 public class MongoCurrency implements Currency {
-    private final static int MAX_DEPTH = 5;
+    /**
+     * Documents fetched per round trip by full scans, large enough to amortize round trips while only one batch is
+     * held in memory.
+     */
+    final static int SCAN_BATCH_SIZE = 1000;
     private final String name;
     private final String plural;
     private final String symbol;
@@ -34,15 +57,23 @@ public class MongoCurrency implements Currency {
     private final boolean allowsPay;
     private final String format;
     private final double defaultBalance;
+    private final int precision;
+    private final long defaultBalanceMinor;
     private final MongoDriver mongoDriver;
     private final MongoCollection<Document> userCollection;
     private final MongoCollection<Document> transactionCollection;
     private final MongoCollection<Document> deletedTransactionCollection;
+    private final @Nullable MongoLedgerWriter ledgerWriter;
+    private final RecountEngine recountEngine;
+    private @Nullable RecountJob recountJob;
+    private volatile int ordinal = -1;
     private final Cache<UUID, Object> recountCooldown = CacheBuilder.newBuilder()
             .expireAfterWrite(5, TimeUnit.MINUTES)
             .build();
 
-    public MongoCurrency(String name, String plural, String symbol, boolean allowsNegatives, boolean allowsPay, String format, double defaultBalance, String mongoUri, String mongoDatabaseName) {
+    public MongoCurrency(String name, String plural, String symbol, boolean allowsNegatives, boolean allowsPay, String format, double defaultBalance, int precision, String mongoUri, String mongoDatabaseName, boolean writeBehind, int writeBehindBatchSize, long writeBehindFlushInterval) {
+        if (precision < 0 || precision > 9) throw new IllegalArgumentException("Precision must be between 0 and 9");
+
         this.name = name;
         this.plural = plural;
         this.symbol = symbol;
@@ -50,6 +81,8 @@ public class MongoCurrency implements Currency {
         this.allowsPay = allowsPay;
         this.format = format;
         this.defaultBalance = defaultBalance;
+        this.precision = precision;
+        this.defaultBalanceMinor = toMinor(defaultBalance);
 
         this.mongoDriver = new MongoDriver(mongoUri, mongoDatabaseName);
         this.mongoDriver.connect();
@@ -57,12 +90,42 @@ public class MongoCurrency implements Currency {
         this.userCollection = mongoDriver.getUserCollection();
 
         this.transactionCollection = mongoDriver.getTransactionCollection();
-        this.transactionCollection.createIndex(new Document("linkerId", 1));
-        this.transactionCollection.createIndex(new Document("user", 1));
-        this.transactionCollection.createIndex(new Document("currency", 1));
-
         this.deletedTransactionCollection = mongoDriver.getDeletedTransactionCollection();
-        this.deletedTransactionCollection.createIndex(new Document("user", 1));
+        indexes(new IndexManager(mongoDriver.getDatabase())).ensure();
+
+        this.ledgerWriter = writeBehind
+                ? new MongoLedgerWriter(name, userCollection, transactionCollection, precision, writeBehindBatchSize, writeBehindFlushInterval)
+                : null;
+        this.recountEngine = new RecountEngine(this, userCollection, transactionCollection);
+    }
+
+    /**
+     * Declare the indexes of this currency and the hot queries they have to serve.
+     * @param indexes The index manager of the currency's database.
+     * @return The index manager.
+     */
+    private IndexManager indexes(IndexManager indexes) {
+        Object user = Ids.match(new UUID(0, 0));
+        Document history = new Document("user", user).append("currency", name);
+        Document recount = new Document("currency", name)
+                .append("type", new Document("$in", List.of(CurrencyTransactionType.PAYMENT.name(), CurrencyTransactionType.WITHDRAWAL.name())))
+                .append("user", new Document("$in", List.of(user)));
+        Document page = new Document("timestamp", -1).append("_id", -1);
+
+        return indexes
+                .index("transactions", new Document("user", 1).append("currency", 1).append("timestamp", -1).append("_id", -1))
+                .index("transactions", new Document("user", 1).append("timestamp", -1).append("_id", -1))
+                .index("transactions", new Document("linkerId", 1))
+                .index("transactions", new Document("currency", 1).append("type", 1).append("user", 1))
+                .index("deleted_transactions", new Document("user", 1).append("timestamp", -1).append("_id", -1))
+                .index("users", new Document(name, -1))
+                .query("history", "transactions", history, new Document("timestamp", 1))
+                .query("checkpoints", "transactions", new Document(history).append("type", CurrencyTransactionType.OVERRIDE.name()), page)
+                .query("transaction page", "transactions", new Document("user", user), page)
+                .query("deleted transaction page", "deleted_transactions", new Document("user", user), page)
+                .query("linked transactions", "transactions", new Document("linkerId", Ids.match(new UUID(0, 0))), new Document())
+                .query("recount history", "transactions", recount, new Document())
+                .query("top balances", "users", new Document(), new Document(name, -1));
     }
 
     @Override
@@ -70,6 +133,15 @@ public class MongoCurrency implements Currency {
         return name;
     }
 
+    @Override
+    public int ordinal() {
+        return ordinal;
+    }
+
+    void ordinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
     @Override
     public String plural() {
         return plural;
@@ -100,49 +172,466 @@ public class MongoCurrency implements Currency {
         return defaultBalance;
     }
 
+    @Override
+    public int precision() {
+        return precision;
+    }
+
     @Override
     public double balance(UUID uuid) {
-        Map<UUID, CurrencyUser> cache = CurrencyApi.getService().localUsersCache();
-        if (cache.containsKey(uuid)) {
-            return cache.get(uuid).balance(this);
+        Optional<CurrencyUser> cachedUser = CurrencyApi.getService().getCachedUser(uuid);
+        if (cachedUser.isPresent()) {
+            return cachedUser.get().balance(this);
         }
 
-        Document userDocument = userCollection.find()
-                .filter(new Document("_id", uuid.toString()))
-                .first();
+        return CurrencyExecutor.await(balanceAsync(uuid));
+    }
 
-        MongoCurrencyUser user;
-        if (userDocument == null) {
-            user = new MongoCurrencyUser(uuid, Bukkit.getOfflinePlayer(uuid).getName());
-            for (Currency value : CurrencyApi.getService().currencies().values()) {
-                user.set(value, value.defaultBalance(), "Default balance", null, null);
-            }
-            userCollection.insertOne(user.toDocument());
+    @Override
+    public CompletableFuture<Double> balanceAsync(UUID uuid) {
+        Optional<CurrencyUser> cachedUser = CurrencyApi.getService().getCachedUser(uuid);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser.get().balance(this));
+        }
+
+        return executor().supply(() -> toMajor(loadBalance(uuid)));
+    }
 
-            return 0;
+    @Override
+    public long balanceMinor(UUID uuid) {
+        Optional<CurrencyUser> cachedUser = CurrencyApi.getService().getCachedUser(uuid);
+        if (cachedUser.isPresent()) {
+            return cachedUser.get().balanceMinor(this);
         }
 
-        user = new MongoCurrencyUser(userDocument);
-        return user.balance(this);
+        return CurrencyExecutor.await(executor().supply(() -> loadBalance(uuid)));
+    }
+
+    /**
+     * @return The balance in minor units.
+     */
+    private long loadBalance(UUID uuid) {
+        Optional<CurrencyUser> cachedUser = CurrencyApi.getService().getCachedUser(uuid);
+        if (cachedUser.isPresent()) {
+            return cachedUser.get().balanceMinor(this);
+        }
+
+        CurrencyUser user = CurrencyExecutor.await(CurrencyApi.getService().getUserFromDatabase(uuid));
+        if (user == null) {
+            // Unknown users are not written on reads, they are provisioned by their first balance change.
+            return defaultBalanceMinor + pendingDelta(uuid);
+        }
+
+        cacheIfOnline(user);
+        return user.balanceMinor(this) + pendingDelta(uuid);
+    }
+
+    /**
+     * Put an online player back into the cache after their entry expired, so the next lookups stay local.
+     */
+    protected void cacheIfOnline(CurrencyUser user) {
+        if (Bukkit.getPlayer(user.userId()) != null) {
+            CurrencyApi.getService().addCachedUser(user);
+        }
+    }
+
+    /**
+     * Provision the users the service does not know yet in one batch, so the upserts of bulk writes do not create
+     * users without their default balances. Users still stored with string ids are moved first, an upsert on their
+     * binary id would create a second document.
+     */
+    private void provisionUnknown(Collection<UUID> users) {
+        UuidMigration.migrateUsers(userCollection, users);
+        List<UUID> unknown = new ArrayList<>();
+        for (UUID user : users) {
+            if (!CurrencyApi.getService().isKnownUser(user)) {
+                unknown.add(user);
+            }
+        }
+        CurrencyExecutor.await(CurrencyApi.getService().provisionUsers(unknown));
+    }
+
+    /**
+     * Whether a balance update on a user without a document would succeed once the user is provisioned.
+     */
+    protected boolean coveredByProvisioning(long delta) {
+        return delta >= 0 || allowsNegatives || defaultBalanceMinor >= -delta;
     }
 
     @Override
     public CurrencyTransaction deposit(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return CurrencyExecutor.await(depositAsync(user, amount, reason, linkerId, linkerReason));
+    }
+
+    @Override
+    public CompletableFuture<CurrencyTransaction> depositAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return dispatch(() -> prepareDeposit(user, toMinor(amount), reason, linkerId, linkerReason), this::applyDeposit);
+    }
+
+    @Override
+    public CurrencyTransaction depositMinor(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return CurrencyExecutor.await(dispatch(() -> prepareDeposit(user, amount, reason, linkerId, linkerReason), this::applyDeposit));
+    }
+
+    /**
+     * Prepare a transaction on the calling thread, so its event fires there, then apply it on the executor while the
+     * account is locked.
+     */
+    private CompletableFuture<CurrencyTransaction> dispatch(Supplier<MongoCurrencyTransaction> prepare, Function<MongoCurrencyTransaction, CurrencyTransaction> apply) {
+        MongoCurrencyTransaction transaction;
+        try {
+            transaction = prepare.get();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (transaction.type() == CurrencyTransactionType.FAILED) {
+            return CompletableFuture.completedFuture(transaction);
+        }
+
+        return executor().supply(() -> locked(Collections.singleton(transaction.user()), () -> apply.apply(transaction)));
+    }
+
+    private CurrencyTransaction applyDeposit(MongoCurrencyTransaction transaction) {
+        write(transaction, transaction.amountMinor());
+
+        return transaction;
+    }
+
+    @Override
+    public CurrencyTransaction set(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return CurrencyExecutor.await(setAsync(user, amount, reason, linkerId, linkerReason));
+    }
+
+    @Override
+    public CompletableFuture<CurrencyTransaction> setAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return dispatch(() -> prepareOverride(user, toMinor(amount), reason, linkerId, linkerReason), this::applySet);
+    }
+
+    @Override
+    public CurrencyTransaction setMinor(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return CurrencyExecutor.await(dispatch(() -> prepareOverride(user, amount, reason, linkerId, linkerReason), this::applySet));
+    }
+
+    /**
+     * Overwrite a balance with a single {@code $set} and record it as an OVERRIDE entry, which recounts start from.
+     */
+    private CurrencyTransaction applySet(MongoCurrencyTransaction transaction) {
+        UUID user = transaction.user();
+        // Queued deltas from before the override would otherwise land on top of it.
+        if (ledgerWriter != null && pendingDelta(user) != 0) {
+            ledgerWriter.flush();
+        }
+
+        transactionCollection.insertOne(transaction.toDocument());
+        Document updated;
+        try {
+            updated = overrideBalance(user, transaction.amountMinor());
+        } catch (RuntimeException e) {
+            transactionCollection.deleteOne(new Document("_id", Ids.write(transaction.id())));
+            throw e;
+        }
+
+        transaction.resultingBalance(balanceOf(updated));
+        updateCachedBalance(user, updated);
+        return transaction;
+    }
+
+    @Override
+    public CurrencyTransaction withdraw(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return CurrencyExecutor.await(withdrawAsync(user, amount, reason, linkerId, linkerReason));
+    }
+
+    @Override
+    public CompletableFuture<CurrencyTransaction> withdrawAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return dispatch(() -> prepareWithdraw(user, toMinor(amount), reason, linkerId, linkerReason), this::applyWithdraw);
+    }
+
+    @Override
+    public CurrencyTransaction withdrawMinor(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return CurrencyExecutor.await(dispatch(() -> prepareWithdraw(user, amount, reason, linkerId, linkerReason), this::applyWithdraw));
+    }
+
+    private CurrencyTransaction applyWithdraw(MongoCurrencyTransaction transaction) {
+        write(transaction, -transaction.amountMinor());
+
+        return transaction;
+    }
+
+    @Override
+    public CurrencyTransfer transfer(UUID from, UUID to, double amount, String fromReason, String toReason, @Nullable String linkerReason) {
+        return CurrencyExecutor.await(transferAsync(from, to, amount, fromReason, toReason, linkerReason));
+    }
+
+    @Override
+    public CompletableFuture<CurrencyTransfer> transferAsync(UUID from, UUID to, double amount, String fromReason, String toReason, @Nullable String linkerReason) {
+        // Both sides are prepared on the calling thread, so their events fire there.
+        MongoCurrencyTransaction withdrawal;
+        MongoCurrencyTransaction deposit;
+        UUID linkerId = UUID.randomUUID();
+        try {
+            if (from == null || to == null) throw new IllegalArgumentException("User cannot be null");
+            if (from.equals(to)) throw new IllegalArgumentException("Cannot transfer to the same user");
+
+            withdrawal = prepareWithdraw(from, toMinor(amount), fromReason, linkerId, linkerReason);
+            if (withdrawal.type() == CurrencyTransactionType.FAILED) {
+                return CompletableFuture.completedFuture(new MongoCurrencyTransfer(linkerId, withdrawal, failedTransaction(to, toReason, linkerId, linkerReason), Double.NaN, Double.NaN));
+            }
+
+            deposit = prepareDeposit(to, withdrawal.amountMinor(), toReason, linkerId, linkerReason);
+            if (deposit.type() == CurrencyTransactionType.FAILED) {
+                return CompletableFuture.completedFuture(new MongoCurrencyTransfer(linkerId, withdrawal, deposit, Double.NaN, Double.NaN));
+            }
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return executor().supply(() -> locked(Arrays.asList(from, to), () -> applyTransfer(linkerId, withdrawal, deposit)));
+    }
+
+    private CurrencyTransfer applyTransfer(UUID linkerId, MongoCurrencyTransaction withdrawal, MongoCurrencyTransaction deposit) {
+        UUID from = withdrawal.user();
+        UUID to = deposit.user();
+        if (ledgerWriter != null && pendingDelta(from) != 0) {
+            ledgerWriter.flush();
+        }
+
+        Document fromUpdated = updateBalance(from, -withdrawal.amountMinor());
+        Document toUpdated;
+        try {
+            toUpdated = updateBalance(to, deposit.amountMinor());
+        } catch (RuntimeException e) {
+            revertBalance(from, -withdrawal.amountMinor());
+            throw e;
+        }
+
+        try {
+            if (ledgerWriter != null) {
+                ledgerWriter.enqueue(withdrawal.toDocument(), from, 0);
+                ledgerWriter.enqueue(deposit.toDocument(), to, 0);
+            } else {
+                transactionCollection.insertMany(List.of(withdrawal.toDocument(), deposit.toDocument()));
+            }
+        } catch (RuntimeException e) {
+            revertBalance(to, deposit.amountMinor());
+            revertBalance(from, -withdrawal.amountMinor());
+            throw e;
+        }
+
+        long fromBalance = balanceOf(fromUpdated);
+        long toBalance = balanceOf(toUpdated);
+        withdrawal.resultingBalance(fromBalance);
+        deposit.resultingBalance(toBalance);
+        updateCachedBalance(from, fromUpdated);
+        updateCachedBalance(to, toUpdated);
+
+        return new MongoCurrencyTransfer(linkerId, withdrawal, deposit, toMajor(fromBalance), toMajor(toBalance));
+    }
+
+    @Override
+    public Map<UUID, CurrencyTransaction> depositAll(Map<UUID, Double> amounts, String reason) {
+        return CurrencyExecutor.await(depositAllAsync(amounts, reason));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, CurrencyTransaction>> depositAllAsync(Map<UUID, Double> amounts, String reason) {
+        if (amounts == null) return CompletableFuture.failedFuture(new IllegalArgumentException("Amounts cannot be null"));
+
+        return executor().supply(() -> locked(amounts.keySet(), () -> applyDepositAll(amounts, reason)));
+    }
+
+    private Map<UUID, CurrencyTransaction> applyDepositAll(Map<UUID, Double> amounts, String reason) {
+
+        Map<UUID, CurrencyTransaction> results = new LinkedHashMap<>();
+        List<MongoCurrencyTransaction> deposits = new ArrayList<>(amounts.size());
+        for (Map.Entry<UUID, Double> entry : amounts.entrySet()) {
+            MongoCurrencyTransaction transaction = prepareDeposit(entry.getKey(), toMinor(entry.getValue()), reason, null, null);
+            results.put(entry.getKey(), transaction);
+            if (transaction.type() != CurrencyTransactionType.FAILED) {
+                deposits.add(transaction);
+            }
+        }
+        if (deposits.isEmpty()) return results;
+
+        if (ledgerWriter != null) {
+            for (MongoCurrencyTransaction deposit : deposits) {
+                write(deposit, deposit.amountMinor());
+            }
+            return results;
+        }
+
+        List<Document> ledger = new ArrayList<>(deposits.size());
+        for (MongoCurrencyTransaction deposit : deposits) {
+            ledger.add(deposit.toDocument());
+        }
+
+        Set<Integer> failed = bulkFailures(() -> transactionCollection.insertMany(ledger, new InsertManyOptions().ordered(false)));
+        List<MongoCurrencyTransaction> written = new ArrayList<>(deposits.size());
+        for (int i = 0; i < deposits.size(); i++) {
+            MongoCurrencyTransaction deposit = deposits.get(i);
+            if (failed.contains(i)) {
+                results.put(deposit.user(), failedTransaction(deposit.user(), reason, null, null));
+            } else {
+                written.add(deposit);
+            }
+        }
+
+        List<UUID> users = new ArrayList<>(written.size());
+        for (MongoCurrencyTransaction deposit : written) {
+            users.add(deposit.user());
+        }
+        provisionUnknown(users);
+
+        List<WriteModel<Document>> updates = new ArrayList<>(written.size());
+        for (MongoCurrencyTransaction deposit : written) {
+            updates.add(new UpdateOneModel<>(
+                    new Document("_id", Ids.write(deposit.user())),
+                    incrementUpdate(deposit.amountMinor()),
+                    new UpdateOptions().upsert(true)
+            ));
+        }
+
+        failed = bulkFailures(() -> userCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false)));
+        for (int i = 0; i < written.size(); i++) {
+            MongoCurrencyTransaction deposit = written.get(i);
+            if (failed.contains(i)) {
+                // Keep the ledger consistent with the balances that were actually applied.
+                transactionCollection.deleteOne(new Document("_id", Ids.write(deposit.id())));
+                results.put(deposit.user(), failedTransaction(deposit.user(), reason, null, null));
+                continue;
+            }
+
+            CurrencyApi.getService().markKnownUser(deposit.user());
+            adjustCachedBalance(deposit.user(), deposit.amountMinor());
+        }
+
+        return results;
+    }
+
+    @Override
+    public Map<UUID, CurrencyTransaction> withdrawAll(Map<UUID, Double> amounts, String reason) {
+        return CurrencyExecutor.await(withdrawAllAsync(amounts, reason));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, CurrencyTransaction>> withdrawAllAsync(Map<UUID, Double> amounts, String reason) {
+        if (amounts == null) return CompletableFuture.failedFuture(new IllegalArgumentException("Amounts cannot be null"));
+
+        return executor().supply(() -> locked(amounts.keySet(), () -> applyWithdrawAll(amounts, reason)));
+    }
+
+    private Map<UUID, CurrencyTransaction> applyWithdrawAll(Map<UUID, Double> amounts, String reason) {
+        if (amounts.isEmpty()) return new LinkedHashMap<>();
+
+        if (ledgerWriter != null && ledgerWriter.pendingCount() > 0) {
+            ledgerWriter.flush();
+        }
+
+        provisionUnknown(amounts.keySet());
+
+        Map<UUID, Long> balances = new HashMap<>();
+        if (!allowsNegatives) {
+            userCollection.find(new Document("_id", new Document("$in", Ids.matchAll(amounts.keySet()))))
+                    .projection(new Document(name, 1))
+                    .forEach(document -> balances.put(Ids.read(document.get("_id")), balanceOf(document)));
+        }
+
+        Map<UUID, CurrencyTransaction> results = new LinkedHashMap<>();
+        List<MongoCurrencyTransaction> withdrawals = new ArrayList<>(amounts.size());
+        for (Map.Entry<UUID, Double> entry : amounts.entrySet()) {
+            long amount = toMinor(entry.getValue());
+            if (!allowsNegatives && balances.getOrDefault(entry.getKey(), 0L) < amount) {
+                results.put(entry.getKey(), failedTransaction(entry.getKey(), reason, null, null));
+                continue;
+            }
+
+            MongoCurrencyTransaction transaction = prepareWithdraw(entry.getKey(), amount, reason, null, null);
+            results.put(entry.getKey(), transaction);
+            if (transaction.type() != CurrencyTransactionType.FAILED) {
+                withdrawals.add(transaction);
+            }
+        }
+        if (withdrawals.isEmpty()) return results;
+
+        // Every user here exists, so an upsert only happens when the balance filter does not match. That insert
+        // collides with the existing _id and shows up as a write error at the index of the entry that lost the race.
+        List<WriteModel<Document>> updates = new ArrayList<>(withdrawals.size());
+        for (MongoCurrencyTransaction withdrawal : withdrawals) {
+            long delta = -withdrawal.amountMinor();
+            updates.add(new UpdateOneModel<>(incrementFilter(withdrawal.user(), delta), incrementUpdate(delta), new UpdateOptions().upsert(true)));
+        }
+
+        Set<Integer> failed = bulkFailures(() -> userCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false)));
+        List<MongoCurrencyTransaction> applied = new ArrayList<>(withdrawals.size());
+        for (int i = 0; i < withdrawals.size(); i++) {
+            MongoCurrencyTransaction withdrawal = withdrawals.get(i);
+            if (failed.contains(i)) {
+                results.put(withdrawal.user(), failedTransaction(withdrawal.user(), reason, null, null));
+            } else {
+                applied.add(withdrawal);
+            }
+        }
+        if (applied.isEmpty()) return results;
+
+        if (ledgerWriter != null) {
+            for (MongoCurrencyTransaction withdrawal : applied) {
+                ledgerWriter.enqueue(withdrawal.toDocument(), withdrawal.user(), 0);
+            }
+        } else {
+            List<Document> ledger = new ArrayList<>(applied.size());
+            for (MongoCurrencyTransaction withdrawal : applied) {
+                ledger.add(withdrawal.toDocument());
+            }
+
+            failed = bulkFailures(() -> transactionCollection.insertMany(ledger, new InsertManyOptions().ordered(false)));
+            for (int index : failed) {
+                MongoCurrencyTransaction withdrawal = applied.get(index);
+                revertBalance(withdrawal.user(), -withdrawal.amountMinor());
+                results.put(withdrawal.user(), failedTransaction(withdrawal.user(), reason, null, null));
+            }
+        }
+
+        for (MongoCurrencyTransaction withdrawal : applied) {
+            if (results.get(withdrawal.user()) != withdrawal) continue;
+
+            adjustCachedBalance(withdrawal.user(), -withdrawal.amountMinor());
+        }
+
+        return results;
+    }
+
+    /**
+     * Run an unordered bulk operation and collect the indexes of the entries that failed.
+     */
+    private Set<Integer> bulkFailures(Runnable bulkOperation) {
+        try {
+            bulkOperation.run();
+            return Set.of();
+        } catch (MongoBulkWriteException e) {
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.add(error.getIndex());
+            }
+            return failed;
+        }
+    }
+
+    /**
+     * @param amount The amount in minor units.
+     */
+    protected MongoCurrencyTransaction prepareDeposit(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
         if (user == null) throw new IllegalArgumentException("User cannot be null");
         if (amount <= 0) throw new IllegalArgumentException("Amount must be greater than 0");
         if (reason == null) throw new IllegalArgumentException("Reason cannot be null");
 
-        CurrencyGiveEvent event = new CurrencyGiveEvent(user, this, amount);
-        boolean isCancelled = event.callEvent();
-        if (isCancelled) {
-            return new MongoCurrencyTransaction(this, null, 0, CurrencyTransactionType.FAILED, user, reason,
-                    Instant.now(), Optional.ofNullable(linkerId), Optional.ofNullable(linkerReason));
+        CurrencyGiveEvent event = new CurrencyGiveEvent(user, this, toMajor(amount));
+        if (!event.callEvent()) {
+            return failedTransaction(user, reason, linkerId, linkerReason);
         }
 
-        MongoCurrencyTransaction transaction = new MongoCurrencyTransaction(
+        return new MongoCurrencyTransaction(
                 this,
                 UUID.randomUUID(),
-                event.getAmount(),
+                toMinor(event.getAmount()),
                 CurrencyTransactionType.PAYMENT,
                 user,
                 reason,
@@ -150,91 +639,253 @@ public class MongoCurrency implements Currency {
                 Optional.ofNullable(linkerId),
                 Optional.ofNullable(linkerReason)
         );
-        transactionCollection.insertOne(transaction.toDocument());
-        userCollection.updateOne(new Document("_id", user.toString()), new Document("$inc", new Document(this.name, amount)), new UpdateOptions().upsert(true));
-
-        return transaction;
     }
 
-    @Override
-    public CurrencyTransaction set(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+    /**
+     * @param amount The amount in minor units.
+     */
+    protected MongoCurrencyTransaction prepareWithdraw(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
         if (user == null) throw new IllegalArgumentException("User cannot be null");
-        if (amount < 0) throw new IllegalArgumentException("Amount must be greater than or equal to 0");
+        if (amount <= 0) throw new IllegalArgumentException("Amount must be greater than 0");
         if (reason == null) throw new IllegalArgumentException("Reason cannot be null");
 
-        CurrencySetEvent event = new CurrencySetEvent(user, this, amount);
-        boolean isCancelled = event.callEvent();
-        if (isCancelled) {
-            return new MongoCurrencyTransaction(this, null, 0, CurrencyTransactionType.FAILED, user, reason,
-                    Instant.now(), Optional.ofNullable(linkerId), Optional.ofNullable(linkerReason));
-        }
-
-        double balance = balance(user);
-
-        amount = event.getAmount();
-        double delta = balance > amount ? -(balance - amount) : (amount - balance);
-
-        if (delta == 0) {
-            throw new IllegalArgumentException("User balance is already " + amount);
+        CurrencyTakeEvent event = new CurrencyTakeEvent(user, this, toMajor(amount));
+        if (!event.callEvent()) {
+            return failedTransaction(user, reason, linkerId, linkerReason);
         }
 
-        if (delta > 0) {
-            return deposit(user, delta, reason, linkerId, linkerReason);
-        } else {
-            return withdraw(user, Math.abs(delta), reason, linkerId, linkerReason);
-        }
+        return new MongoCurrencyTransaction(
+                this,
+                UUID.randomUUID(),
+                toMinor(event.getAmount()),
+                CurrencyTransactionType.WITHDRAWAL,
+                user,
+                reason,
+                Instant.now(),
+                Optional.ofNullable(linkerId),
+                Optional.ofNullable(linkerReason)
+        );
     }
 
-    @Override
-    public CurrencyTransaction withdraw(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+    /**
+     * @param amount The balance to set in minor units.
+     */
+    private MongoCurrencyTransaction prepareOverride(UUID user, long amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
         if (user == null) throw new IllegalArgumentException("User cannot be null");
-        if (amount <= 0) throw new IllegalArgumentException("Amount must be greater than 0");
+        if (amount < 0) throw new IllegalArgumentException("Amount must be greater than or equal to 0");
         if (reason == null) throw new IllegalArgumentException("Reason cannot be null");
-        if (balance(user) - amount < 0 && !allowsNegatives) {
-            throw new IllegalArgumentException("Cannot withdraw more than the balance");
-        }
 
-        CurrencyTakeEvent event = new CurrencyTakeEvent(user, this, amount);
-        boolean isCancelled = event.callEvent();
-        if (isCancelled) {
-            return new MongoCurrencyTransaction(this, null, 0, CurrencyTransactionType.FAILED, user, reason,
-                    Instant.now(), Optional.ofNullable(linkerId), Optional.ofNullable(linkerReason));
+        CurrencySetEvent event = new CurrencySetEvent(user, this, toMajor(amount));
+        if (!event.callEvent()) {
+            return failedTransaction(user, reason, linkerId, linkerReason);
         }
 
-        MongoCurrencyTransaction transaction = new MongoCurrencyTransaction(
+        return new MongoCurrencyTransaction(
                 this,
                 UUID.randomUUID(),
-                event.getAmount(),
-                CurrencyTransactionType.WITHDRAWAL,
+                toMinor(event.getAmount()),
+                CurrencyTransactionType.OVERRIDE,
                 user,
                 reason,
                 Instant.now(),
                 Optional.ofNullable(linkerId),
                 Optional.ofNullable(linkerReason)
         );
+    }
 
-        transactionCollection.insertOne(transaction.toDocument());
-        userCollection.updateOne(new Document("_id", user.toString()), new Document("$inc", new Document(this.name, -amount)), new UpdateOptions().upsert(true));
+    protected MongoCurrencyTransaction failedTransaction(UUID user, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        return new MongoCurrencyTransaction(this, null, 0L, CurrencyTransactionType.FAILED, user, reason,
+                Instant.now(), Optional.ofNullable(linkerId), Optional.ofNullable(linkerReason));
+    }
 
-        return transaction;
+    /**
+     * @param delta The change of the balance in minor units.
+     */
+    protected void write(MongoCurrencyTransaction transaction, long delta) {
+        UUID user = transaction.user();
+        if (ledgerWriter != null) {
+            if (delta >= 0) {
+                provisionUnknown(List.of(user));
+                ledgerWriter.enqueue(transaction.toDocument(), user, delta);
+                adjustCachedBalance(user, delta);
+                return;
+            }
+
+            // Queued deposits are not visible to the balance filter yet.
+            if (pendingDelta(user) != 0) {
+                ledgerWriter.flush();
+            }
+        }
+
+        // The balance goes first, so a rejected debit leaves no ledger entry, and a failed ledger write is undone.
+        Document updated = updateBalance(user, delta);
+        insertLedger(transaction, delta);
+
+        transaction.resultingBalance(balanceOf(updated));
+        updateCachedBalance(user, updated);
+    }
+
+    /**
+     * Write the ledger entry of a balance change that was already applied, undoing the change if that fails.
+     */
+    private void insertLedger(MongoCurrencyTransaction transaction, long delta) {
+        try {
+            if (ledgerWriter != null) {
+                ledgerWriter.enqueue(transaction.toDocument(), transaction.user(), 0);
+            } else {
+                transactionCollection.insertOne(transaction.toDocument());
+            }
+        } catch (RuntimeException e) {
+            revertBalance(transaction.user(), delta);
+            throw e;
+        }
+    }
+
+    /**
+     * Update the cached user from the user document returned by a write.
+     */
+    protected void updateCachedBalance(UUID user, Document document) {
+        CurrencyApi.getService().markKnownUser(user);
+        long balance = balanceOf(document);
+        long version = MongoCurrencyUser.versionOf(document);
+        forCacheUser(user, cachedUser -> {
+            cachedUser.setMinor(this, balance);
+            if (cachedUser instanceof MongoCurrencyUser mongoUser) {
+                mongoUser.advanceVersion(version);
+            }
+        });
+    }
+
+    private void adjustCachedBalance(UUID user, long delta) {
+        forCacheUser(user, cachedUser -> cachedUser.setMinor(this, cachedUser.balanceMinor(this) + delta));
+    }
+
+    /**
+     * Apply a delta to the stored balance in a single round trip. Debits on currencies without negative balances
+     * only match when the stored balance covers them, so the check and the update are one atomic operation.
+     * @return The user document after the update.
+     */
+    private Document updateBalance(UUID user, long delta) {
+        Document document = findAndIncrement(user, delta);
+        if (document == null && migrateUser(user)) {
+            // The user was still stored with a string id.
+            document = findAndIncrement(user, delta);
+        }
+        if (document == null && coveredByProvisioning(delta)) {
+            // The user may not have been created yet, in which case the default balance still applies.
+            CurrencyExecutor.await(CurrencyApi.getService().provisionUsers(List.of(user)));
+            document = findAndIncrement(user, delta);
+        }
+
+        if (document == null) {
+            throw new InsufficientFundsException(user, this, toMajor(-delta));
+        }
+
+        return document;
+    }
+
+    /**
+     * Undo a delta that was already applied, without any balance condition.
+     */
+    private void revertBalance(UUID user, long delta) {
+        userCollection.updateOne(new Document("_id", Ids.write(user)), incrementUpdate(-delta));
+    }
+
+    private @Nullable Document findAndIncrement(UUID user, long delta) {
+        return userCollection.findOneAndUpdate(incrementFilter(user, delta), incrementUpdate(delta), incrementOptions());
+    }
+
+    /**
+     * Move a user that is still stored with a string id to a binary id.
+     * @param user The UUID of the user.
+     * @return True if the user was moved.
+     */
+    protected boolean migrateUser(UUID user) {
+        return UuidMigration.migrateUsers(userCollection, List.of(user)) > 0;
+    }
+
+    /**
+     * Match the user, and for debits on currencies without negative balances only when the balance covers the delta.
+     */
+    protected Document incrementFilter(UUID user, long delta) {
+        Document filter = new Document("_id", Ids.write(user));
+        if (delta < 0 && !allowsNegatives) {
+            filter.append(name, new Document("$gte", Decimals.toDecimal(-delta, precision)));
+        }
+        return filter;
+    }
+
+    protected Document incrementUpdate(long delta) {
+        return new Document("$inc", new Document(name, Decimals.toDecimal(delta, precision)).append(MongoCurrencyUser.VERSION_FIELD, 1));
+    }
+
+    /**
+     * Overwrite the stored balance, provisioning the user first if it does not exist.
+     * @return The user document after the update.
+     */
+    private Document overrideBalance(UUID user, long balance) {
+        Document filter = new Document("_id", Ids.write(user));
+        Document update = new Document("$set", new Document(name, Decimals.toDecimal(balance, precision)))
+                .append("$inc", new Document(MongoCurrencyUser.VERSION_FIELD, 1));
+        Document document = userCollection.findOneAndUpdate(filter, update, incrementOptions());
+        if (document == null) {
+            CurrencyExecutor.await(CurrencyApi.getService().provisionUsers(List.of(user)));
+            document = userCollection.findOneAndUpdate(filter, update, incrementOptions());
+        }
+        if (document == null) throw new IllegalStateException("User " + user + " could not be provisioned");
+
+        return document;
+    }
+
+    /**
+     * Match the user only while its document is still at the given version. Documents written before versions
+     * existed count as version 0.
+     */
+    protected Document versionFilter(UUID user, long version) {
+        return new Document("_id", Ids.match(user))
+                .append(MongoCurrencyUser.VERSION_FIELD, version == 0 ? new Document("$in", Arrays.asList(0, null)) : version);
+    }
+
+    /**
+     * Never upserts, a missing user is provisioned with its default balances and the update retried instead.
+     */
+    protected FindOneAndUpdateOptions incrementOptions() {
+        return new FindOneAndUpdateOptions()
+                .returnDocument(ReturnDocument.AFTER)
+                .projection(new Document(name, 1).append(MongoCurrencyUser.VERSION_FIELD, 1));
+    }
+
+    /**
+     * @return The balance stored in a user document in minor units.
+     */
+    protected long balanceOf(Document document) {
+        return Decimals.toMinor(document.get(name), precision);
+    }
+
+    protected boolean writeBehind() {
+        return ledgerWriter != null;
+    }
+
+    long pendingDelta(UUID user) {
+        return ledgerWriter == null ? 0 : ledgerWriter.pendingDelta(user);
     }
 
     @Override
     public void invalidateTransaction(UUID transactionId) {
         if (transactionId == null) throw new IllegalArgumentException("Transaction ID cannot be null");
 
-        Document transaction = transactionCollection.find(new Document("_id", transactionId.toString())).first();
+        Document transaction = transactionCollection.find(new Document("_id", Ids.match(transactionId))).first();
         if (transaction == null) throw new IllegalArgumentException("Transaction not found");
         if (transaction.getBoolean("deleted")) throw new IllegalArgumentException("Transaction already deleted");
         transaction.put("deleted", true);
 
         if (transaction.containsKey("linkerId")) {
-            getLinkedTransactions(UUID.fromString(transaction.getString("linkerId"))).forEach(linkedTransaction -> {
+            getLinkedTransactions(Ids.read(transaction.get("linkerId"))).forEach(linkedTransaction -> {
                 if (((MongoCurrencyTransaction) linkedTransaction).deleted()) {
                     return;
                 }
 
-                transactionCollection.deleteOne(new Document("_id", linkedTransaction.id().toString()));
+                transactionCollection.deleteOne(new Document("_id", Ids.match(linkedTransaction.id())));
 
                 Document document = ((MongoCurrencyTransaction) linkedTransaction).toDocument();
                 document.put("deleted", true);
@@ -244,26 +895,26 @@ public class MongoCurrency implements Currency {
         }
 
         deletedTransactionCollection.insertOne(transaction);
-        transactionCollection.deleteOne(new Document("_id", transactionId.toString()));
+        transactionCollection.deleteOne(new Document("_id", transaction.get("_id")));
     }
 
     @Override
     public void validateTransaction(UUID transactionId) {
         if (transactionId == null) throw new IllegalArgumentException("Transaction ID cannot be null");
 
-        Document transaction = deletedTransactionCollection.find(new Document("_id", transactionId.toString())).first();
+        Document transaction = deletedTransactionCollection.find(new Document("_id", Ids.match(transactionId))).first();
         if (transaction == null) throw new IllegalArgumentException("Transaction not found");
         if (!transaction.getBoolean("deleted")) throw new IllegalArgumentException("Transaction is not deleted");
 
         transaction.put("deleted", false);
 
         if (transaction.containsKey("linkerId")) {
-            getLinkedTransactions(UUID.fromString(transaction.getString("linkerId"))).forEach(linkedTransaction -> {
+            getLinkedTransactions(Ids.read(transaction.get("linkerId"))).forEach(linkedTransaction -> {
                 if (!((MongoCurrencyTransaction) linkedTransaction).deleted()) {
                     return;
                 }
 
-                deletedTransactionCollection.deleteOne(new Document("_id", linkedTransaction.id().toString()));
+                deletedTransactionCollection.deleteOne(new Document("_id", Ids.match(linkedTransaction.id())));
 
                 Document document = ((MongoCurrencyTransaction) linkedTransaction).toDocument();
                 document.put("deleted", false);
@@ -273,18 +924,13 @@ public class MongoCurrency implements Currency {
         }
 
         transactionCollection.insertOne(transaction);
-        deletedTransactionCollection.deleteOne(new Document("_id", transactionId.toString()));
+        deletedTransactionCollection.deleteOne(new Document("_id", transaction.get("_id")));
     }
 
     @Override
     public List<CurrencyTransaction> getTransactions(UUID user, int limit, int skip) {
-        List<CurrencyTransaction> transactions = new SortedList<>(Comparator.comparing(currencyTransaction -> {
-            if (currencyTransaction instanceof MongoCurrencyTransaction) {
-                return -currencyTransaction.timestamp().getEpochSecond();
-            }
-            return -Instant.now().getEpochSecond();
-        }));
-        transactionCollection.find(new Document("user", user.toString()))
+        List<CurrencyTransaction> transactions = new ArrayList<>();
+        transactionCollection.find(new Document("user", Ids.match(user)))
                 .sort(new Document("timestamp", -1))
                 .skip(skip)
                 .limit(limit)
@@ -295,13 +941,8 @@ public class MongoCurrency implements Currency {
 
     @Override
     public List<CurrencyTransaction> getDeletedTransactions(UUID user, int limit, int skip) {
-        List<CurrencyTransaction> transactions = new SortedList<>(Comparator.comparing(currencyTransaction -> {
-            if (currencyTransaction instanceof MongoCurrencyTransaction) {
-                return -currencyTransaction.timestamp().getEpochSecond();
-            }
-            return -Instant.now().getEpochSecond();
-        }));
-        deletedTransactionCollection.find(new Document("user", user.toString()))
+        List<CurrencyTransaction> transactions = new ArrayList<>();
+        deletedTransactionCollection.find(new Document("user", Ids.match(user)))
                 .sort(new Document("timestamp", -1))
                 .skip(skip)
                 .limit(limit)
@@ -310,9 +951,70 @@ public class MongoCurrency implements Currency {
         return transactions;
     }
 
+    @Override
+    public CurrencyTransactionPage getTransactionsPage(UUID user, int limit, @Nullable String pageToken) {
+        return page(transactionCollection, user, limit, pageToken);
+    }
+
+    @Override
+    public CurrencyTransactionPage getDeletedTransactionsPage(UUID user, int limit, @Nullable String pageToken) {
+        return page(deletedTransactionCollection, user, limit, pageToken);
+    }
+
+    /**
+     * Read a page of a user's transactions ordered by (timestamp, _id) descending, continuing strictly after the
+     * position in the token. The database seeks straight to that position, so deep pages cost the same as the first.
+     */
+    private CurrencyTransactionPage page(MongoCollection<Document> collection, UUID user, int limit, @Nullable String pageToken) {
+        if (user == null) throw new IllegalArgumentException("User cannot be null");
+        if (limit <= 0) throw new IllegalArgumentException("Limit must be greater than 0");
+
+        Document filter = new Document("user", Ids.match(user));
+        int page = 1;
+        long total;
+        if (pageToken == null) {
+            total = collection.countDocuments(filter);
+        } else {
+            Document position = MongoCurrencyTransactionPage.decodeToken(pageToken);
+            page = position.getInteger("page");
+            total = position.getLong("total");
+            long timestamp = position.getLong("timestamp");
+            Object lastId = position.get("_id");
+            List<Document> after = new ArrayList<>(List.of(
+                    new Document("timestamp", new Document("$lt", timestamp)),
+                    new Document("timestamp", timestamp).append("_id", new Document("$lt", lastId))
+            ));
+            if (lastId instanceof UUID) {
+                // String ids sort below binary ids, so while both exist they all follow a binary id.
+                after.add(new Document("timestamp", timestamp).append("_id", new Document("$type", "string")));
+            }
+            filter.append("$or", after);
+        }
+
+        List<Document> documents = new ArrayList<>(limit + 1);
+        collection.find(filter)
+                .sort(new Document("timestamp", -1).append("_id", -1))
+                .limit(limit + 1)
+                .into(documents);
+
+        // The extra document only tells whether there is a next page.
+        String nextPageToken = null;
+        if (documents.size() > limit) {
+            documents.remove(limit);
+            Document last = documents.get(limit - 1);
+            nextPageToken = MongoCurrencyTransactionPage.encodeToken(page + 1, total, last.getLong("timestamp"), last.get("_id"));
+        }
+
+        List<CurrencyTransaction> transactions = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            transactions.add(new MongoCurrencyTransaction(document));
+        }
+        return new MongoCurrencyTransactionPage(transactions, nextPageToken, page, total);
+    }
+
     @Override
     public CurrencyTransaction getTransaction(UUID transactionId) {
-        Document document = transactionCollection.find(new Document("_id", transactionId.toString())).first();
+        Document document = transactionCollection.find(new Document("_id", Ids.match(transactionId))).first();
         if (document == null) return null;
 
         return new MongoCurrencyTransaction(document);
@@ -320,7 +1022,7 @@ public class MongoCurrency implements Currency {
 
     @Override
     public CurrencyTransaction getDeletedTransaction(UUID transactionId) {
-        Document document = deletedTransactionCollection.find(new Document("_id", transactionId.toString())).first();
+        Document document = deletedTransactionCollection.find(new Document("_id", Ids.match(transactionId))).first();
         if (document == null) return null;
 
         return new MongoCurrencyTransaction(document);
@@ -328,12 +1030,12 @@ public class MongoCurrency implements Currency {
 
     @Override
     public long transactionsCount(UUID user) {
-        return transactionCollection.countDocuments(new Document("user", user.toString()));
+        return transactionCollection.countDocuments(new Document("user", Ids.match(user)));
     }
 
     @Override
     public long deletedTransactionsCount(UUID user) {
-        return deletedTransactionCollection.countDocuments(new Document("user", user.toString()));
+        return deletedTransactionCollection.countDocuments(new Document("user", Ids.match(user)));
     }
 
     @Override
@@ -343,79 +1045,63 @@ public class MongoCurrency implements Currency {
             return Collections.emptyList();
         }
 
-        recountCooldown.put(user, new Object());
-
-        List<UUID> recalculatedUsers = new ArrayList<>();
-        recalculatedUsers.add(user);
-        double startingBalance = balance(user);
-        double balance = 0;
-        FindIterable<Document> documents = transactionCollection.find(new Document("user", user.toString()).append("currency", this.name()));
-        for (Document document : documents) {
-            MongoCurrencyTransaction transaction = new MongoCurrencyTransaction(document);
-            switch (transaction.type()) {
-                case PAYMENT -> balance += transaction.amount();
-                case WITHDRAWAL -> {
-                    if (balance - transaction.amount() < 0 && !allowsNegatives) {
-                        invalidateTransaction(transaction.id());
-                        continue;
-                    }
-                    balance -= transaction.amount();
-                }
-                case OVERRIDE -> balance = transaction.amount();
-            }
-
-            if (transaction.linkerId().isPresent()) {
-                getLinkedTransactions(transaction.linkerId().get()).forEach(linkedTransaction -> {
-                    if (recalculatedUsers.contains(linkedTransaction.user())) {
-                        return;
-                    }
-
-                    if (recountCooldown.getIfPresent(linkedTransaction.user()) != null) {
-                        return;
-                    }
-
-                    recalculatedUsers.add(linkedTransaction.user());
-                    Bukkit.getScheduler().runTaskLaterAsynchronously(CurrencyPlugin.getPlugin(CurrencyPlugin.class), () -> {
-                        recalculateBalance(linkedTransaction.user());
-                    }, 20L);
-                });
-            }
+        // Queued ledger entries and deltas have to be in the database for the recount to see them.
+        if (ledgerWriter != null) {
+            ledgerWriter.flush();
         }
 
-        if (balance != startingBalance) {
-            userCollection.updateOne(
-                    new Document("_id", user.toString()),
-                    new Document("$set", new Document(this.name, balance)),
-                    new UpdateOptions().upsert(true)
-            );
-            double finalBalance = balance;
-            forCacheUser(user, currencyUser -> {
-                currencyUser.set(this,  finalBalance, "Recalculated balance", null, null);
-            });
+        List<UUID> users = recountEngine.component(user);
+        for (UUID recounted : users) {
+            recountCooldown.put(recounted, new Object());
         }
 
-        return recalculatedUsers;
+        return locked(users, () -> {
+            recountEngine.recount(users);
+            return users;
+        });
     }
 
     @Override
-    public List<CurrencyTransaction> history(UUID user) {
-        List<CurrencyTransaction> transactions = new SortedList<>(Comparator.comparing(CurrencyTransaction::timestamp));
-        FindIterable<Document> documents = transactionCollection.find(
-                new Document("user", user.toString())
-                        .append("currency", this.name())
-        );
-        for (Document document : documents) {
-            transactions.add(new MongoCurrencyTransaction(document));
-        }
+    public CurrencyTransactionCursor history(UUID user, int batchSize) {
+        if (user == null) throw new IllegalArgumentException("User cannot be null");
+        if (batchSize < 0) throw new IllegalArgumentException("Batch size cannot be negative");
 
-        return transactions;
+        return new MongoCurrencyTransactionCursor(transactionCollection.find(new Document("user", Ids.match(user)).append("currency", this.name()))
+                .sort(new Document("timestamp", 1))
+                .batchSize(batchSize)
+                .iterator());
+    }
+
+    @Override
+    public CompletableFuture<List<CurrencyTransaction>> historyAsync(UUID user) {
+        return executor().supply(() -> {
+            List<CurrencyTransaction> transactions = new ArrayList<>();
+            try (CurrencyTransactionCursor cursor = history(user)) {
+                cursor.forEachRemaining(transactions::add);
+            }
+            return transactions;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> scanHistoryAsync(UUID user, int batchSize, Predicate<CurrencyTransaction> visitor) {
+        return executor().supply(() -> {
+            long visited = 0;
+            try (CurrencyTransactionCursor cursor = history(user, batchSize)) {
+                while (cursor.hasNext()) {
+                    visited++;
+                    if (!visitor.test(cursor.next())) break;
+                }
+            }
+            return visited;
+        });
     }
 
     @Override
     public List<CurrencyTransaction> getLinkedTransactions(UUID linkerId) {
         List<CurrencyTransaction> transactions = new ArrayList<>();
         FindIterable<Document> documents = transactionCollection.find(
-                new Document("linkerId", linkerId.toString())
+                new Document("linkerId", Ids.match(linkerId))
         );
         for (Document document : documents) {
             transactions.add(new MongoCurrencyTransaction(document));
@@ -426,6 +1112,15 @@ public class MongoCurrency implements Currency {
 
     @Override
     public List<CurrencyUser> getTopBalances(int limit, int skip) {
+        return CurrencyExecutor.await(getTopBalancesAsync(limit, skip));
+    }
+
+    @Override
+    public CompletableFuture<List<CurrencyUser>> getTopBalancesAsync(int limit, int skip) {
+        return executor().supply(() -> loadTopBalances(limit, skip));
+    }
+
+    private List<CurrencyUser> loadTopBalances(int limit, int skip) {
         List<CurrencyUser> users = new ArrayList<>();
         FindIterable<Document> documents = userCollection.find()
                 .sort(new Document(name, -1))
@@ -444,23 +1139,277 @@ public class MongoCurrency implements Currency {
     }
 
     @Override
-    public CompletableFuture<Boolean> transaction(Runnable transactionRunnable) {
-        return CompletableFuture.supplyAsync(() -> {
-            ClientSession session = mongoDriver.getMongoClient().startSession();
-            session.startTransaction();
+    public CompletableFuture<Boolean> transaction(Consumer<CurrencyTransactionContext> transaction) {
+        return executor().supply(() -> {
+            MongoTransactionContext context = new MongoTransactionContext();
             try {
-                transactionRunnable.run();
-                session.commitTransaction();
+                transaction.accept(context);
+                locked(context.users(), () -> {
+                    context.commit();
+                    return null;
+                });
                 return true;
+            } catch (InsufficientFundsException e) {
+                log.fine("Transaction for " + name + " failed: " + e.getMessage());
+                return false;
             } catch (Exception e) {
-                e.printStackTrace();
-                session.abortTransaction();
+                log.log(Level.WARNING, "Transaction for " + name + " failed", e);
                 return false;
-            } finally {
-                session.close();
             }
         });
     }
 
+    /**
+     * Run an operation while holding the account locks of the given users.
+     * @throws AccountLockTimeoutException If the accounts could not be locked in time.
+     */
+    protected <T> T locked(Collection<UUID> users, Supplier<T> operation) {
+        try (AccountLocks.Lease ignored = CurrencyApi.getService().accountLocks().acquire(users)) {
+            return operation.get();
+        }
+    }
+
+    protected CurrencyExecutor executor() {
+        return CurrencyApi.getService().executor();
+    }
+
+    /**
+     * Get the full recount job of this currency. A running job is returned as is, otherwise a new job is created
+     * with the given settings.
+     * @param concurrency The maximum number of users recounted at the same time.
+     * @param usersPerSecond The maximum number of users recounted per second.
+     * @param batchSize The number of users read and checkpointed at once.
+     * @return The recount job.
+     */
+    public synchronized RecountJob recountJob(int concurrency, double usersPerSecond, int batchSize) {
+        if (recountJob == null || !recountJob.running()) {
+            recountJob = new RecountJob(this, userCollection, mongoDriver.getDatabase().getCollection("recount_jobs"),
+                    concurrency, usersPerSecond, batchSize);
+        }
+        return recountJob;
+    }
+
+    /**
+     * Create the migration moving the documents of every currency from string ids to binary ids.
+     * @return The migration.
+     */
+    public UuidMigration uuidMigration() {
+        return new UuidMigration(mongoDriver.getDatabase());
+    }
+
+    /**
+     * Create a verifier comparing the stored balances of this currency against the ledger. Queued write-behind
+     * entries are flushed first so they are not reported as drift.
+     * @return The verifier.
+     */
+    public LedgerVerifier verifier() {
+        if (ledgerWriter != null) {
+            ledgerWriter.flush();
+        }
+        return new LedgerVerifier(this, userCollection, transactionCollection);
+    }
+
+    /**
+     * Set the number of users a single recount may lock and rewrite. Users linked to more users are recounted alone.
+     * @param maxComponentSize The maximum number of users recounted together.
+     */
+    public void maxRecountComponentSize(int maxComponentSize) {
+        recountEngine.maxComponentSize(maxComponentSize);
+    }
+
+    /**
+     * Ask a running recount job to stop after its current page, without waiting for it.
+     */
+    public void stopRecount() {
+        RecountJob job;
+        synchronized (this) {
+            job = recountJob;
+        }
+        if (job != null) {
+            job.stop();
+        }
+    }
+
+    @Override
+    public void close() {
+        RecountJob job;
+        synchronized (this) {
+            job = recountJob;
+        }
+        // The recount writes through the ledger writer and the driver, so it has to finish its page first.
+        if (job != null && !job.stopAndWait(10_000)) {
+            log.warning("Recount of " + name + " did not stop in time, its last page will be recounted on resume");
+        }
+        if (ledgerWriter != null) {
+            ledgerWriter.close();
+        }
+        mongoDriver.close();
+    }
+
+    /**
+     * Buffers the writes of a transaction block. Reads inside the block are not locked, so the buffered entries are
+     * replayed against the balances read under the account locks when the block commits. A block with a single
+     * write is written like a plain operation, anything larger is committed in one multi-document transaction on a
+     * single session.
+     */
+    private class MongoTransactionContext implements CurrencyTransactionContext {
+        private final List<MongoCurrencyTransaction> transactions = new ArrayList<>();
+        private final Map<UUID, Long> balances = new LinkedHashMap<>();
+
+        @Override
+        public Currency currency() {
+            return MongoCurrency.this;
+        }
+
+        @Override
+        public double balance(UUID user) {
+            return toMajor(balanceMinor(user));
+        }
+
+        private long balanceMinor(UUID user) {
+            return balances.computeIfAbsent(user, MongoCurrency.this::loadBalance);
+        }
+
+        @Override
+        public CurrencyTransaction deposit(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+            return buffer(prepareDeposit(user, toMinor(amount), reason, linkerId, linkerReason));
+        }
+
+        @Override
+        public CurrencyTransaction withdraw(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+            if (user == null) throw new IllegalArgumentException("User cannot be null");
+            long minor = toMinor(amount);
+            if (balanceMinor(user) - minor < 0 && !allowsNegatives) {
+                throw new InsufficientFundsException(user, MongoCurrency.this, toMajor(minor));
+            }
+
+            return buffer(prepareWithdraw(user, minor, reason, linkerId, linkerReason));
+        }
+
+        @Override
+        public CurrencyTransaction set(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+            return buffer(prepareOverride(user, toMinor(amount), reason, linkerId, linkerReason));
+        }
+
+        /**
+         * @return The users the block writes to, balances that were only read are not locked.
+         */
+        private Set<UUID> users() {
+            Set<UUID> users = new LinkedHashSet<>();
+            for (MongoCurrencyTransaction transaction : transactions) {
+                users.add(transaction.user());
+            }
+            return users;
+        }
+
+        private CurrencyTransaction buffer(MongoCurrencyTransaction transaction) {
+            if (transaction.type() == CurrencyTransactionType.FAILED) {
+                return transaction;
+            }
+
+            transactions.add(transaction);
+            balances.put(transaction.user(), apply(balanceMinor(transaction.user()), transaction));
+            return transaction;
+        }
+
+        /**
+         * @return The balance after the transaction in minor units.
+         */
+        private long apply(long balance, MongoCurrencyTransaction transaction) {
+            return switch (transaction.type()) {
+                case OVERRIDE -> transaction.amountMinor();
+                case WITHDRAWAL -> balance - transaction.amountMinor();
+                default -> balance + transaction.amountMinor();
+            };
+        }
+
+        /**
+         * Write the buffered entries. Must be called while the accounts of the block are locked.
+         * @throws InsufficientFundsException If a withdrawal is no longer covered by the current balance.
+         */
+        private void commit() {
+            if (transactions.isEmpty()) return;
+
+            if (transactions.size() == 1) {
+                MongoCurrencyTransaction transaction = transactions.get(0);
+                switch (transaction.type()) {
+                    case OVERRIDE -> applySet(transaction);
+                    case WITHDRAWAL -> applyWithdraw(transaction);
+                    default -> applyDeposit(transaction);
+                }
+                return;
+            }
+
+            // Queued deltas are not visible to the balance filters below, and would land on top of overrides.
+            if (ledgerWriter != null) {
+                ledgerWriter.flush();
+            }
+
+            provisionUnknown(users());
+
+            // The block read its balances without the locks, so replay it against the current ones.
+            Map<UUID, Long> current = new LinkedHashMap<>();
+            Map<UUID, Long> deltas = new HashMap<>();
+            Set<UUID> overridden = new HashSet<>();
+            for (MongoCurrencyTransaction transaction : transactions) {
+                UUID user = transaction.user();
+                long balance = current.computeIfAbsent(user, MongoCurrency.this::loadBalance);
+                long updated = apply(balance, transaction);
+                if (transaction.type() == CurrencyTransactionType.WITHDRAWAL && updated < 0 && !allowsNegatives) {
+                    throw new InsufficientFundsException(user, MongoCurrency.this, toMajor(transaction.amountMinor()));
+                }
+                if (transaction.type() == CurrencyTransactionType.OVERRIDE) {
+                    overridden.add(user);
+                }
+                current.put(user, updated);
+                deltas.merge(user, updated - balance, Long::sum);
+            }
+
+            List<Document> ledger = new ArrayList<>(transactions.size());
+            for (MongoCurrencyTransaction transaction : transactions) {
+                ledger.add(transaction.toDocument());
+            }
 
+            UuidMigration.migrateUsers(userCollection, current.keySet());
+            List<WriteModel<Document>> updates = new ArrayList<>(current.size());
+            for (Map.Entry<UUID, Long> entry : current.entrySet()) {
+                UUID user = entry.getKey();
+                if (overridden.contains(user)) {
+                    updates.add(new UpdateOneModel<>(
+                            new Document("_id", Ids.write(user)),
+                            new Document("$set", new Document(name, Decimals.toDecimal(entry.getValue(), precision)))
+                                    .append("$inc", new Document(MongoCurrencyUser.VERSION_FIELD, 1))
+                    ));
+                    continue;
+                }
+
+                long delta = deltas.get(user);
+                boolean debit = delta < 0 && !allowsNegatives;
+                updates.add(new UpdateOneModel<>(
+                        incrementFilter(user, delta),
+                        incrementUpdate(delta),
+                        new UpdateOptions().upsert(!debit)
+                ));
+            }
+
+            try (ClientSession session = mongoDriver.getMongoClient().startSession()) {
+                session.withTransaction(() -> {
+                    transactionCollection.insertMany(session, ledger);
+                    BulkWriteResult result = userCollection.bulkWrite(session, updates);
+                    if (result.getMatchedCount() + result.getUpserts().size() != updates.size()) {
+                        throw new IllegalArgumentException("Cannot withdraw more than the balance");
+                    }
+                    return null;
+                });
+            }
+
+            for (Map.Entry<UUID, Long> entry : current.entrySet()) {
+                if (overridden.contains(entry.getKey())) {
+                    forCacheUser(entry.getKey(), cachedUser -> cachedUser.setMinor(MongoCurrency.this, entry.getValue()));
+                } else {
+                    adjustCachedBalance(entry.getKey(), deltas.get(entry.getKey()));
+                }
+            }
+        }
+    }
 }
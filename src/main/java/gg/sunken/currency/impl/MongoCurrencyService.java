@@ -1,28 +1,82 @@
 package gg.sunken.currency.impl;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
 import gg.sunken.currency.api.Currency;
 import gg.sunken.currency.api.CurrencyService;
 import gg.sunken.currency.api.CurrencyUser;
+import gg.sunken.currency.impl.mongo.Ids;
 import gg.sunken.currency.impl.mongo.MongoProvider;
+import gg.sunken.currency.impl.mongo.UuidMigration;
+import gg.sunken.currency.util.AccountLocks;
+import gg.sunken.currency.util.CurrencyExecutor;
+import lombok.extern.java.Log;
 import org.bson.Document;
+import org.bukkit.Bukkit;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+@Log
 public class MongoCurrencyService implements CurrencyService {
+    private final static Funnel<UUID> UUID_FUNNEL = (uuid, into) -> into
+            .putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits());
 
     private final Map<String, Currency> currencies = new HashMap<>();
-    private final Map<UUID, CurrencyUser> localUsersCache = new HashMap<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final Cache<UUID, CurrencyUser> localUsersCache;
     private final MongoCollection<Document> userCollection;
+    private final CurrencyExecutor executor;
+    private final AccountLocks accountLocks;
+    private final Map<UUID, CompletableFuture<CurrencyUser>> inFlightLoads = new ConcurrentHashMap<>();
+    private final LongAdder coalescedLoads = new LongAdder();
+    private final BloomFilter<UUID> knownUsers;
+    private final Cache<UUID, Boolean> unknownUsers;
+    private final Set<UUID> pendingProvisioning = ConcurrentHashMap.newKeySet();
 
-    public MongoCurrencyService(String mongoUri, String mongoDatabase) {
+    public MongoCurrencyService(String mongoUri, String mongoDatabase, int ioConcurrency, long cacheMaximumSize, long cacheExpireAfterAccessMinutes, long unknownUserCacheSeconds, int lockStripes, long lockTimeoutMillis) {
         MongoClient mongoClient = MongoProvider.getMongoClient(mongoUri);
         this.userCollection = mongoClient.getDatabase(mongoDatabase).getCollection("users");
+        new UuidMigration(mongoClient.getDatabase(mongoDatabase)).loadState();
+        this.executor = new CurrencyExecutor(ioConcurrency);
+        this.accountLocks = new AccountLocks(lockStripes, lockTimeoutMillis);
+        this.localUsersCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterAccess(cacheExpireAfterAccessMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        this.unknownUsers = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterWrite(unknownUserCacheSeconds, TimeUnit.SECONDS)
+                .build();
+
+        // Sized with headroom for the users created while the server runs, the false positive rate only
+        // degrades gradually once that is exceeded.
+        long userCount = userCollection.estimatedDocumentCount();
+        this.knownUsers = BloomFilter.create(UUID_FUNNEL, Math.max(userCount * 2, 100_000), 0.001);
+        userCollection.find().projection(new Document("_id", 1)).forEach(document ->
+                knownUsers.put(Ids.read(document.get("_id"))));
+        log.info("Loaded " + userCount + " known users");
     }
 
     @Override
@@ -37,6 +91,11 @@ public class MongoCurrencyService implements CurrencyService {
 
     @Override
     public void addCurrency(Currency currency) {
+        // Ordinals are never reused, a currency that is removed and added again keeps its index.
+        int ordinal = ordinals.computeIfAbsent(currency.name(), name -> ordinals.size());
+        if (currency instanceof MongoCurrency mongoCurrency) {
+            mongoCurrency.ordinal(ordinal);
+        }
         currencies.put(currency.name(), currency);
     }
 
@@ -47,12 +106,12 @@ public class MongoCurrencyService implements CurrencyService {
 
     @Override
     public Map<UUID, CurrencyUser> localUsersCache() {
-        return localUsersCache;
+        return localUsersCache.asMap();
     }
 
     @Override
     public Optional<CurrencyUser> getCachedUser(UUID uuid) {
-        return Optional.ofNullable(localUsersCache.get(uuid));
+        return Optional.ofNullable(localUsersCache.getIfPresent(uuid));
     }
 
     @Override
@@ -62,17 +121,204 @@ public class MongoCurrencyService implements CurrencyService {
 
     @Override
     public void removeCachedUser(UUID uuid) {
-        localUsersCache.remove(uuid);
+        localUsersCache.invalidate(uuid);
+    }
+
+    @Override
+    public CacheStats cacheStats() {
+        return localUsersCache.stats();
     }
 
+    /**
+     * Load a user, sharing the database read with any load of the same user that is still in flight. The known
+     * users filter is not consulted here: it only holds the users this server has seen, and a user created by
+     * another server would otherwise be loaded with the default balances. Users that were just found missing are
+     * answered from the unknown users cache until they are provisioned or the entry expires.
+     * @return A future with the user, or {@code null} if the user does not exist.
+     */
     @Override
     public CompletableFuture<CurrencyUser> getUserFromDatabase(UUID uuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            Document document = userCollection.find(new Document("_id", uuid.toString())).first();
+        if (unknownUsers.getIfPresent(uuid) != null) {
+            // Callers fall back to the default balances, as for a read that finds nothing.
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<CurrencyUser> load = new CompletableFuture<>();
+        CompletableFuture<CurrencyUser> inFlight = inFlightLoads.putIfAbsent(uuid, load);
+        if (inFlight != null) {
+            if (!CurrencyExecutor.onWorker()) {
+                coalescedLoads.increment();
+                return inFlight;
+            }
+            // The shared load may still be waiting for a slot, and this task holds one. Waiting for it could leave
+            // every slot held by tasks waiting on loads that never start, so the read runs inline instead.
+            return fetch(uuid);
+        }
+
+        fetch(uuid).whenComplete((user, error) -> {
+            inFlightLoads.remove(uuid, load);
+            if (error != null) {
+                load.completeExceptionally(error);
+            } else {
+                load.complete(user);
+            }
+        });
+        return load;
+    }
+
+    /**
+     * Read a user and remember whether it exists.
+     */
+    private CompletableFuture<CurrencyUser> fetch(UUID uuid) {
+        CompletableFuture<CurrencyUser> fetch;
+        try {
+            fetch = fetchUser(uuid);
+        } catch (RuntimeException e) {
+            fetch = CompletableFuture.failedFuture(e);
+        }
+
+        return fetch.whenComplete((user, error) -> {
+            if (error == null && user == null) {
+                unknownUsers.put(uuid, true);
+            } else if (error == null) {
+                markKnownUser(uuid);
+            }
+        });
+    }
+
+    /**
+     * Read a user from the database.
+     * @return A future with the user, or {@code null} if the user does not exist.
+     */
+    protected CompletableFuture<CurrencyUser> fetchUser(UUID uuid) {
+        return executor.supply(() -> {
+            Document document = userCollection.find(new Document("_id", Ids.match(uuid))).first();
             if (document == null) {
                 return null;
             }
             return new MongoCurrencyUser(document);
         });
     }
+
+    /**
+     * Reload a cached user when the stored document has a newer version. The version check happens in the query,
+     * so a current user costs a single indexed lookup that returns nothing.
+     */
+    @Override
+    public CompletableFuture<Boolean> refreshIfStale(UUID uuid) {
+        Optional<CurrencyUser> cachedUser = getCachedUser(uuid);
+        if (cachedUser.isEmpty()) return CompletableFuture.completedFuture(false);
+
+        long version = cachedUser.get().version();
+        return executor.supply(() -> {
+            Document document = userCollection.find(new Document("_id", Ids.match(uuid))
+                    .append(MongoCurrencyUser.VERSION_FIELD, new Document("$gt", version))).first();
+            if (document == null) {
+                return false;
+            }
+
+            MongoCurrencyUser user = new MongoCurrencyUser(document);
+            for (Currency currency : currencies.values()) {
+                if (currency instanceof MongoCurrency mongoCurrency) {
+                    // Write-behind deltas are part of the cached balance but not of the document yet.
+                    user.setMinor(currency, user.balanceMinor(currency) + mongoCurrency.pendingDelta(uuid));
+                }
+            }
+            addCachedUser(user);
+            return true;
+        });
+    }
+
+    /**
+     * Whether a user probably exists, without a database read. Users created by other servers after startup are
+     * missing until this server loads them, so only use it where treating an existing user as unknown is harmless.
+     */
+    @Override
+    public boolean isKnownUser(UUID uuid) {
+        return knownUsers.mightContain(uuid) && unknownUsers.getIfPresent(uuid) == null;
+    }
+
+    @Override
+    public void markKnownUser(UUID uuid) {
+        knownUsers.put(uuid);
+        unknownUsers.invalidate(uuid);
+    }
+
+    /**
+     * Create the documents of users that do not exist yet with the default balance of every currency, in one
+     * unordered insert. Users that already exist are left untouched, users still stored with string ids are moved
+     * to binary ids instead.
+     */
+    @Override
+    public CompletableFuture<Void> provisionUsers(Collection<UUID> uuids) {
+        if (uuids.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        return executor.supply(() -> {
+            UuidMigration.migrateUsers(userCollection, uuids);
+            List<Document> documents = new ArrayList<>(uuids.size());
+            for (UUID uuid : uuids) {
+                documents.add(MongoCurrencyUser.withDefaults(uuid, Bukkit.getOfflinePlayer(uuid).getName()).toDocument());
+            }
+
+            try {
+                userCollection.insertMany(documents, new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                        throw e;
+                    }
+                }
+            }
+
+            for (UUID uuid : uuids) {
+                markKnownUser(uuid);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void queueProvisioning(UUID uuid) {
+        pendingProvisioning.add(uuid);
+    }
+
+    @Override
+    public CompletableFuture<Void> flushProvisioning() {
+        List<UUID> batch = new ArrayList<>();
+        for (UUID uuid : pendingProvisioning) {
+            if (pendingProvisioning.remove(uuid)) {
+                batch.add(uuid);
+            }
+        }
+        return provisionUsers(batch).whenComplete((ignored, error) -> {
+            if (error != null) {
+                pendingProvisioning.addAll(batch);
+            }
+        });
+    }
+
+    @Override
+    public long coalescedLoads() {
+        return coalescedLoads.sum();
+    }
+
+    @Override
+    public CurrencyExecutor executor() {
+        return executor;
+    }
+
+    @Override
+    public AccountLocks accountLocks() {
+        return accountLocks;
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            flushProvisioning().join();
+        } catch (Exception e) {
+            log.warning("Failed to provision queued users: " + e.getMessage());
+        }
+        executor.shutdown();
+    }
 }
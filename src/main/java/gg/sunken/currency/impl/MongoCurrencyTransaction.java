@@ -4,16 +4,20 @@ import gg.sunken.currency.api.Currency;
 import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.api.CurrencyTransaction;
 import gg.sunken.currency.api.CurrencyTransactionType;
+import gg.sunken.currency.impl.mongo.Decimals;
+import gg.sunken.currency.impl.mongo.Ids;
 import org.bson.Document;
 
 import java.time.Instant;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
 import java.util.UUID;
 
 public class MongoCurrencyTransaction implements CurrencyTransaction {
     private final Currency currency;
     private final UUID id;
-    private final double amount;
+    private final long amount;
     private final CurrencyTransactionType type;
     private final UUID user;
     private final String reason;
@@ -21,8 +25,9 @@ public class MongoCurrencyTransaction implements CurrencyTransaction {
     private final UUID linkerId;
     private final String linkerReason;
     private boolean deleted;
+    private Long resultingBalance;
 
-    public MongoCurrencyTransaction(Currency currency, UUID id, double amount, CurrencyTransactionType type, UUID user, String reason, Instant timestamp, Optional<UUID> linkerId, Optional<String> linkerReason) {
+    public MongoCurrencyTransaction(Currency currency, UUID id, long amount, CurrencyTransactionType type, UUID user, String reason, Instant timestamp, Optional<UUID> linkerId, Optional<String> linkerReason) {
         this.currency = currency;
         this.id = id;
         this.amount = amount;
@@ -37,13 +42,13 @@ public class MongoCurrencyTransaction implements CurrencyTransaction {
 
     public MongoCurrencyTransaction(Document document) {
         this.currency = CurrencyApi.getService().currencies().get(document.getString("currency"));
-        this.id = UUID.fromString(document.getString("_id"));
-        this.amount = document.getDouble("amount");
+        this.id = Ids.read(document.get("_id"));
+        this.amount = Decimals.toMinor(document.get("amount"), currency == null ? 2 : currency.precision());
         this.type = CurrencyTransactionType.valueOf(document.getString("type"));
-        this.user = UUID.fromString(document.getString("user"));
+        this.user = Ids.read(document.get("user"));
         this.reason = document.getString("reason");
         this.timestamp = Instant.ofEpochMilli(document.getLong("timestamp"));
-        this.linkerId = document.containsKey("linkerId") ? UUID.fromString(document.getString("linkerId")) : null;
+        this.linkerId = document.containsKey("linkerId") ? Ids.read(document.get("linkerId")) : null;
         this.linkerReason = document.containsKey("linkerReason") ? document.getString("linkerReason") : null;
         this.deleted = document.containsKey("deleted") && document.getBoolean("deleted");
     }
@@ -51,14 +56,14 @@ public class MongoCurrencyTransaction implements CurrencyTransaction {
     public Document toDocument() {
         Document document = new Document();
         document.put("currency", currency.name());
-        document.put("_id", id.toString());
-        document.put("amount", amount);
+        document.put("_id", Ids.write(id));
+        document.put("amount", Decimals.toDecimal(amount, currency.precision()));
         document.put("type", type.name());
-        document.put("user", user.toString());
+        document.put("user", Ids.write(user));
         document.put("reason", reason);
         document.put("timestamp", timestamp.toEpochMilli());
         if (linkerId != null) {
-            document.put("linkerId", linkerId.toString());
+            document.put("linkerId", Ids.write(linkerId));
         }
         if (linkerReason != null) {
             document.put("linkerReason", linkerReason);
@@ -79,6 +84,11 @@ public class MongoCurrencyTransaction implements CurrencyTransaction {
 
     @Override
     public double amount() {
+        return currency.toMajor(amount);
+    }
+
+    @Override
+    public long amountMinor() {
         return amount;
     }
 
@@ -112,6 +122,20 @@ public class MongoCurrencyTransaction implements CurrencyTransaction {
         return Optional.ofNullable(linkerReason);
     }
 
+    @Override
+    public OptionalDouble resultingBalance() {
+        return resultingBalance == null ? OptionalDouble.empty() : OptionalDouble.of(currency.toMajor(resultingBalance));
+    }
+
+    @Override
+    public OptionalLong resultingBalanceMinor() {
+        return resultingBalance == null ? OptionalLong.empty() : OptionalLong.of(resultingBalance);
+    }
+
+    public void resultingBalance(long resultingBalance) {
+        this.resultingBalance = resultingBalance;
+    }
+
     public void delete() {
         this.deleted = true;
     }
@@ -0,0 +1,29 @@
+package gg.sunken.currency.impl;
+
+import com.mongodb.client.MongoCursor;
+import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransactionCursor;
+import org.bson.Document;
+
+public class MongoCurrencyTransactionCursor implements CurrencyTransactionCursor {
+    private final MongoCursor<Document> cursor;
+
+    public MongoCurrencyTransactionCursor(MongoCursor<Document> cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    @Override
+    public CurrencyTransaction next() {
+        return new MongoCurrencyTransaction(cursor.next());
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+}
@@ -0,0 +1,77 @@
+package gg.sunken.currency.impl;
+
+import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransactionPage;
+import gg.sunken.currency.impl.mongo.Ids;
+import org.bson.Document;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * A page of transactions read with keyset pagination. The next page token holds the position after the last
+ * transaction on this page as (timestamp, _id), so reading any page costs the same as reading the first one.
+ * It also carries the page number and the total counted on the first page, so later pages do not count again.
+ */
+public class MongoCurrencyTransactionPage implements CurrencyTransactionPage {
+    private final List<CurrencyTransaction> transactions;
+    private final @Nullable String nextPageToken;
+    private final int page;
+    private final long total;
+
+    public MongoCurrencyTransactionPage(List<CurrencyTransaction> transactions, @Nullable String nextPageToken, int page, long total) {
+        this.transactions = transactions;
+        this.nextPageToken = nextPageToken;
+        this.page = page;
+        this.total = total;
+    }
+
+    @Override
+    public List<CurrencyTransaction> transactions() {
+        return transactions;
+    }
+
+    @Override
+    public Optional<String> nextPageToken() {
+        return Optional.ofNullable(nextPageToken);
+    }
+
+    @Override
+    public int page() {
+        return page;
+    }
+
+    @Override
+    public long total() {
+        return total;
+    }
+
+    static String encodeToken(int page, long total, long timestamp, Object id) {
+        // The id keeps its stored format, string and binary ids compare differently.
+        String token = page + ":" + total + ":" + timestamp + ":" + (id instanceof UUID ? "b" : "s") + Ids.read(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a page token.
+     * @return The position of the page, {@code page}, {@code total}, {@code timestamp} and {@code _id} in its stored format.
+     * @throws IllegalArgumentException If the token is malformed.
+     */
+    static Document decodeToken(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":", 4);
+            if (parts.length != 4) throw new IllegalArgumentException("Invalid page token");
+
+            return new Document("page", Integer.parseInt(parts[0]))
+                    .append("total", Long.parseLong(parts[1]))
+                    .append("timestamp", Long.parseLong(parts[2]))
+                    .append("_id", parts[3].startsWith("b") ? UUID.fromString(parts[3].substring(1)) : UUID.fromString(parts[3].substring(1)).toString());
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+    }
+}
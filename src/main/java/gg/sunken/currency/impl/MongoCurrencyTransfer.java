@@ -0,0 +1,47 @@
+package gg.sunken.currency.impl;
+
+import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransfer;
+
+import java.util.UUID;
+
+public class MongoCurrencyTransfer implements CurrencyTransfer {
+    private final UUID linkerId;
+    private final CurrencyTransaction withdrawal;
+    private final CurrencyTransaction deposit;
+    private final double fromBalance;
+    private final double toBalance;
+
+    public MongoCurrencyTransfer(UUID linkerId, CurrencyTransaction withdrawal, CurrencyTransaction deposit, double fromBalance, double toBalance) {
+        this.linkerId = linkerId;
+        this.withdrawal = withdrawal;
+        this.deposit = deposit;
+        this.fromBalance = fromBalance;
+        this.toBalance = toBalance;
+    }
+
+    @Override
+    public UUID linkerId() {
+        return linkerId;
+    }
+
+    @Override
+    public CurrencyTransaction withdrawal() {
+        return withdrawal;
+    }
+
+    @Override
+    public CurrencyTransaction deposit() {
+        return deposit;
+    }
+
+    @Override
+    public double fromBalance() {
+        return fromBalance;
+    }
+
+    @Override
+    public double toBalance() {
+        return toBalance;
+    }
+}
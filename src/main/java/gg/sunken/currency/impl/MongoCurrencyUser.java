@@ -3,42 +3,77 @@ package gg.sunken.currency.impl;
 import gg.sunken.currency.api.Currency;
 import gg.sunken.currency.api.CurrencyApi;
 import gg.sunken.currency.api.CurrencyUser;
+import gg.sunken.currency.impl.mongo.Decimals;
+import gg.sunken.currency.impl.mongo.Ids;
 import org.bson.Document;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class MongoCurrencyUser implements CurrencyUser {
+    /**
+     * Document field incremented by every write to a user, missing on documents that were never written since.
+     */
+    public static final String VERSION_FIELD = "version";
 
     private final UUID playerId;
     private final String name;
-    private final Map<String, Double> balances;
+    /**
+     * Balances in minor units indexed by {@link Currency#ordinal()}. Writes are synchronized and replace the array
+     * when it has to grow, reads go straight to the current array. Elements are atomic, so a read on another thread
+     * sees the latest write without taking the lock.
+     */
+    private volatile AtomicLongArray balances;
+    private volatile long version;
 
     public MongoCurrencyUser(UUID playerId, String name) {
         this.playerId = playerId;
         this.name = name;
-        this.balances = new HashMap<>();
+        this.balances = new AtomicLongArray(CurrencyApi.getService().currencies().size());
     }
 
     public MongoCurrencyUser(Document document) {
-        this.playerId = UUID.fromString(document.getString("_id"));
-        this.name = document.getString("name");
-        this.balances = new HashMap<>();
+        this(Ids.read(document.get("_id")), document.getString("name"));
         for (String key : document.keySet()) {
             if (key.equals("_id")) continue;
             if (key.equals("name")) continue;
+            if (key.equals(VERSION_FIELD)) continue;
             Optional<Currency> currency = CurrencyApi.getService().getCurrency(key);
-            currency.ifPresent(value -> balances.put(value.name(), document.getDouble(key)));
+            currency.ifPresent(value -> setMinor(value, Decimals.toMinor(document.get(key), value.precision())));
         }
+        this.version = versionOf(document);
+    }
+
+    /**
+     * Get the version of a user document.
+     * @return The version, 0 for documents without one.
+     */
+    public static long versionOf(Document document) {
+        return document.get(VERSION_FIELD) instanceof Number number ? number.longValue() : 0;
+    }
+
+    /**
+     * Create a user holding the default balance of every registered currency.
+     */
+    public static MongoCurrencyUser withDefaults(UUID playerId, String name) {
+        MongoCurrencyUser user = new MongoCurrencyUser(playerId, name);
+        for (Currency currency : CurrencyApi.getService().currencies().values()) {
+            user.set(currency, currency.defaultBalance(), "Default balance");
+        }
+        return user;
     }
 
     public Document toDocument() {
         Document document = new Document();
-        document.put("_id", playerId.toString());
+        document.put("_id", Ids.write(playerId));
         document.put("name", name);
-        document.putAll(balances);
+        document.put(VERSION_FIELD, version);
+        for (Currency currency : CurrencyApi.getService().currencies().values()) {
+            document.put(currency.name(), Decimals.toDecimal(balanceMinor(currency), currency.precision()));
+        }
         return document;
     }
 
@@ -47,27 +82,79 @@ public class MongoCurrencyUser implements CurrencyUser {
         return playerId;
     }
 
+    @Override
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Record a write this server made to the user document. The cached version only advances when the write
+     * directly follows it, if anything else wrote in between the user stays behind and reads as stale.
+     * @param version The version the document has after the write.
+     */
+    public synchronized void advanceVersion(long version) {
+        if (version == this.version + 1) {
+            this.version = version;
+        }
+    }
+
     @Override
     public double balance(Currency currency) {
-        return balances.getOrDefault(currency.name(), 0.0);
+        return currency.toMajor(balanceMinor(currency));
     }
 
     @Override
-    public void deposit(Currency currency, double amount, String reason, UUID linkerId, String linkerReason) {
-        this.balances.put(currency.name(), this.balances.getOrDefault(currency.name(), 0.0) + amount);
+    public long balanceMinor(Currency currency) {
+        AtomicLongArray balances = this.balances;
+        int ordinal = currency.ordinal();
+        return ordinal >= 0 && ordinal < balances.length() ? balances.get(ordinal) : 0;
     }
 
     @Override
-    public void withdraw(Currency currency, double amount, String reason, UUID linkerId, String linkerReason) {
-        this.balances.put(currency.name(), this.balances.getOrDefault(currency.name(), 0.0) - amount);
+    public synchronized void deposit(Currency currency, double amount, String reason, UUID linkerId, String linkerReason) {
+        slots(currency).addAndGet(currency.ordinal(), currency.toMinor(amount));
     }
 
     @Override
-    public void set(Currency currency, double amount, String reason, UUID linkerId, String linkerReason) {
-        this.balances.put(currency.name(), amount);
+    public synchronized void withdraw(Currency currency, double amount, String reason, UUID linkerId, String linkerReason) {
+        slots(currency).addAndGet(currency.ordinal(), -currency.toMinor(amount));
     }
 
+    @Override
+    public synchronized void set(Currency currency, double amount, String reason, UUID linkerId, String linkerReason) {
+        slots(currency).set(currency.ordinal(), currency.toMinor(amount));
+    }
+
+    @Override
+    public synchronized void setMinor(Currency currency, long amount) {
+        slots(currency).set(currency.ordinal(), amount);
+    }
+
+    /**
+     * Get a copy of the balances keyed by currency name.
+     * @return The balances of the registered currencies.
+     */
     public Map<String, Double> getBalanceMap() {
+        Map<String, Double> balanceMap = new HashMap<>();
+        for (Currency currency : CurrencyApi.getService().currencies().values()) {
+            balanceMap.put(currency.name(), balance(currency));
+        }
+        return balanceMap;
+    }
+
+    private AtomicLongArray slots(Currency currency) {
+        int ordinal = currency.ordinal();
+        if (ordinal < 0) throw new IllegalArgumentException("Currency " + currency.name() + " is not registered");
+
+        AtomicLongArray balances = this.balances;
+        if (ordinal >= balances.length()) {
+            AtomicLongArray grown = new AtomicLongArray(ordinal + 1);
+            for (int i = 0; i < balances.length(); i++) {
+                grown.set(i, balances.get(i));
+            }
+            balances = grown;
+            this.balances = balances;
+        }
         return balances;
     }
 }
@@ -0,0 +1,263 @@
+package gg.sunken.currency.impl;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.api.CurrencyTransaction;
+import gg.sunken.currency.api.CurrencyTransactionType;
+import gg.sunken.currency.api.CurrencyTransfer;
+import gg.sunken.currency.api.CurrencyUser;
+import gg.sunken.currency.api.InsufficientFundsException;
+import gg.sunken.currency.impl.mongo.Ids;
+import gg.sunken.currency.impl.mongo.MongoProvider;
+import gg.sunken.currency.impl.mongo.Publishers;
+import org.bson.Document;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * {@link MongoCurrency} that runs the hot asynchronous operations on the reactive-streams driver, so no thread is
+ * parked while they wait on the database. Uses the same collections and document format as the sync backend.
+ * Write-behind currencies and the administrative operations keep using the sync implementation.
+ */
+public class ReactiveMongoCurrency extends MongoCurrency {
+    private final String mongoUri;
+    private final MongoCollection<Document> userCollection;
+    private final MongoCollection<Document> transactionCollection;
+
+    public ReactiveMongoCurrency(String name, String plural, String symbol, boolean allowsNegatives, boolean allowsPay, String format, double defaultBalance, int precision, String mongoUri, String mongoDatabaseName, boolean writeBehind, int writeBehindBatchSize, long writeBehindFlushInterval) {
+        super(name, plural, symbol, allowsNegatives, allowsPay, format, defaultBalance, precision, mongoUri, mongoDatabaseName, writeBehind, writeBehindBatchSize, writeBehindFlushInterval);
+
+        this.mongoUri = mongoUri;
+        MongoDatabase database = MongoProvider.getReactiveMongoClient(mongoUri).getDatabase(mongoDatabaseName);
+        this.userCollection = database.getCollection("users");
+        this.transactionCollection = database.getCollection("transactions");
+    }
+
+    @Override
+    public CompletableFuture<Double> balanceAsync(UUID uuid) {
+        if (writeBehind()) return super.balanceAsync(uuid);
+
+        Optional<CurrencyUser> cachedUser = CurrencyApi.getService().getCachedUser(uuid);
+        if (cachedUser.isPresent()) {
+            return CompletableFuture.completedFuture(cachedUser.get().balance(this));
+        }
+
+        return CurrencyApi.getService().getUserFromDatabase(uuid)
+                .thenApply(user -> {
+                    if (user == null) {
+                        return defaultBalance();
+                    }
+                    cacheIfOnline(user);
+                    return user.balance(this);
+                });
+    }
+
+    @Override
+    public CompletableFuture<CurrencyTransaction> depositAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        if (writeBehind()) return super.depositAsync(user, amount, reason, linkerId, linkerReason);
+
+        MongoCurrencyTransaction transaction;
+        try {
+            transaction = prepareDeposit(user, toMinor(amount), reason, linkerId, linkerReason);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (transaction.type() == CurrencyTransactionType.FAILED) {
+            return CompletableFuture.completedFuture(transaction);
+        }
+
+        return lockedAsync(Collections.singleton(user), () -> Publishers.first(transactionCollection.insertOne(transaction.toDocument()))
+                .thenCompose(ignored -> increment(user, transaction.amountMinor())
+                        .exceptionallyCompose(error -> deleteAndFail(error, transaction)))
+                .thenApply(updated -> complete(transaction, updated)));
+    }
+
+    @Override
+    public CompletableFuture<CurrencyTransaction> withdrawAsync(UUID user, double amount, String reason, @Nullable UUID linkerId, @Nullable String linkerReason) {
+        if (writeBehind()) return super.withdrawAsync(user, amount, reason, linkerId, linkerReason);
+
+        MongoCurrencyTransaction transaction;
+        try {
+            transaction = prepareWithdraw(user, toMinor(amount), reason, linkerId, linkerReason);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (transaction.type() == CurrencyTransactionType.FAILED) {
+            return CompletableFuture.completedFuture(transaction);
+        }
+
+        long delta = -transaction.amountMinor();
+        return lockedAsync(Collections.singleton(user), () -> increment(user, delta).thenCompose(updated ->
+                Publishers.first(transactionCollection.insertOne(transaction.toDocument()))
+                        .handle((ignored, error) -> error)
+                        .thenCompose(error -> error == null
+                                ? CompletableFuture.<CurrencyTransaction>completedFuture(complete(transaction, updated))
+                                : this.<CurrencyTransaction>revertAndFail(error, Map.of(user, delta)))));
+    }
+
+    @Override
+    public CompletableFuture<CurrencyTransfer> transferAsync(UUID from, UUID to, double amount, String fromReason, String toReason, @Nullable String linkerReason) {
+        if (writeBehind()) return super.transferAsync(from, to, amount, fromReason, toReason, linkerReason);
+
+        MongoCurrencyTransaction withdrawal;
+        MongoCurrencyTransaction deposit;
+        UUID linkerId = UUID.randomUUID();
+        try {
+            if (from == null || to == null) throw new IllegalArgumentException("User cannot be null");
+            if (from.equals(to)) throw new IllegalArgumentException("Cannot transfer to the same user");
+
+            withdrawal = prepareWithdraw(from, toMinor(amount), fromReason, linkerId, linkerReason);
+            if (withdrawal.type() == CurrencyTransactionType.FAILED) {
+                return CompletableFuture.completedFuture(new MongoCurrencyTransfer(linkerId, withdrawal, failedTransaction(to, toReason, linkerId, linkerReason), Double.NaN, Double.NaN));
+            }
+
+            deposit = prepareDeposit(to, withdrawal.amountMinor(), toReason, linkerId, linkerReason);
+            if (deposit.type() == CurrencyTransactionType.FAILED) {
+                return CompletableFuture.completedFuture(new MongoCurrencyTransfer(linkerId, withdrawal, deposit, Double.NaN, Double.NaN));
+            }
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long debit = -withdrawal.amountMinor();
+        long credit = deposit.amountMinor();
+        return lockedAsync(Arrays.asList(from, to), () -> increment(from, debit).thenCompose(fromUpdated -> increment(to, credit)
+                .handle((toUpdated, error) -> error == null
+                        ? CompletableFuture.completedFuture(toUpdated)
+                        : this.<Document>revertAndFail(error, Map.of(from, debit)))
+                .thenCompose(future -> future)
+                .thenCompose(toUpdated -> Publishers.first(transactionCollection.insertMany(List.of(withdrawal.toDocument(), deposit.toDocument())))
+                        .handle((ignored, error) -> error)
+                        .thenCompose(error -> {
+                            if (error != null) {
+                                return this.<CurrencyTransfer>revertAndFail(error, Map.of(to, credit, from, debit));
+                            }
+
+                            complete(withdrawal, fromUpdated);
+                            complete(deposit, toUpdated);
+                            return CompletableFuture.<CurrencyTransfer>completedFuture(new MongoCurrencyTransfer(linkerId, withdrawal, deposit,
+                                    toMajor(balanceOf(fromUpdated)), toMajor(balanceOf(toUpdated))));
+                        }))));
+    }
+
+    @Override
+    public CompletableFuture<List<CurrencyUser>> getTopBalancesAsync(int limit, int skip) {
+        return Publishers.collect(userCollection.find()
+                        .sort(new Document(name(), -1))
+                        .skip(skip)
+                        .limit(limit))
+                .thenApply(documents -> {
+                    List<CurrencyUser> users = new ArrayList<>(documents.size());
+                    for (Document document : documents) {
+                        users.add(new MongoCurrencyUser(document));
+                    }
+                    return users;
+                });
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        MongoProvider.releaseReactiveMongoClient(mongoUri);
+    }
+
+    /**
+     * Run an asynchronous operation while holding the account locks of the given users. The locks are taken without
+     * parking the calling thread and released once the operation completes.
+     */
+    private <T> CompletableFuture<T> lockedAsync(Collection<UUID> users, Supplier<CompletableFuture<T>> operation) {
+        return CurrencyApi.getService().accountLocks().acquireAsync(executor(), users).thenCompose(lease -> {
+            CompletableFuture<T> future;
+            try {
+                future = operation.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            return future.whenComplete((result, error) -> lease.close());
+        });
+    }
+
+    private MongoCurrencyTransaction complete(MongoCurrencyTransaction transaction, Document updated) {
+        transaction.resultingBalance(balanceOf(updated));
+        updateCachedBalance(transaction.user(), updated);
+        return transaction;
+    }
+
+    /**
+     * Reactive counterpart of the sync balance update, provisioning a missing user and retrying when the update
+     * can succeed on its default balance.
+     */
+    private CompletableFuture<Document> increment(UUID user, long delta) {
+        return findAndIncrement(user, delta).thenCompose(document -> {
+            if (document != null || !Ids.mixed()) return CompletableFuture.completedFuture(document);
+
+            // The user may still be stored with a string id, moving it is a blocking write.
+            return executor().supply(() -> migrateUser(user))
+                    .thenCompose(moved -> moved ? findAndIncrement(user, delta) : CompletableFuture.completedFuture(null));
+        }).thenCompose(document -> {
+            if (document != null) {
+                return CompletableFuture.completedFuture(document);
+            }
+            if (!coveredByProvisioning(delta)) {
+                return CompletableFuture.failedFuture(new InsufficientFundsException(user, this, toMajor(-delta)));
+            }
+
+            return CurrencyApi.getService().provisionUsers(List.of(user))
+                    .thenCompose(ignored -> findAndIncrement(user, delta))
+                    .thenApply(retried -> {
+                        if (retried == null) throw new InsufficientFundsException(user, this, toMajor(-delta));
+                        return retried;
+                    });
+        });
+    }
+
+    private CompletableFuture<Document> findAndIncrement(UUID user, long delta) {
+        return Publishers.first(userCollection.findOneAndUpdate(incrementFilter(user, delta), incrementUpdate(delta), incrementOptions()));
+    }
+
+    /**
+     * Undo balance deltas that were already applied, then fail with the original error.
+     */
+    private <T> CompletableFuture<T> revertAndFail(Throwable error, Map<UUID, Long> applied) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        CompletableFuture<?> reverted = CompletableFuture.completedFuture(null);
+        for (Map.Entry<UUID, Long> entry : applied.entrySet()) {
+            Document filter = new Document("_id", Ids.write(entry.getKey()));
+            Document update = incrementUpdate(-entry.getValue());
+            reverted = reverted.thenCompose(ignored -> Publishers.first(userCollection.updateOne(filter, update)));
+        }
+
+        return reverted.handle((ignored, revertError) -> {
+            if (revertError != null) {
+                cause.addSuppressed(revertError);
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Delete a ledger entry whose balance change was not applied, then fail with the original error.
+     */
+    private <T> CompletableFuture<T> deleteAndFail(Throwable error, MongoCurrencyTransaction transaction) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        return Publishers.first(transactionCollection.deleteOne(new Document("_id", Ids.write(transaction.id()))))
+                .handle((ignored, deleteError) -> {
+                    if (deleteError != null) {
+                        cause.addSuppressed(deleteError);
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+}
@@ -0,0 +1,38 @@
+package gg.sunken.currency.impl;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+import gg.sunken.currency.api.CurrencyUser;
+import gg.sunken.currency.impl.mongo.Ids;
+import gg.sunken.currency.impl.mongo.MongoProvider;
+import gg.sunken.currency.impl.mongo.Publishers;
+import org.bson.Document;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link MongoCurrencyService} that loads users through the reactive-streams driver.
+ */
+public class ReactiveMongoCurrencyService extends MongoCurrencyService {
+    private final String mongoUri;
+    private final MongoCollection<Document> userCollection;
+
+    public ReactiveMongoCurrencyService(String mongoUri, String mongoDatabase, int ioConcurrency, long cacheMaximumSize, long cacheExpireAfterAccessMinutes, long unknownUserCacheSeconds, int lockStripes, long lockTimeoutMillis) {
+        super(mongoUri, mongoDatabase, ioConcurrency, cacheMaximumSize, cacheExpireAfterAccessMinutes, unknownUserCacheSeconds, lockStripes, lockTimeoutMillis);
+
+        this.mongoUri = mongoUri;
+        this.userCollection = MongoProvider.getReactiveMongoClient(mongoUri).getDatabase(mongoDatabase).getCollection("users");
+    }
+
+    @Override
+    protected CompletableFuture<CurrencyUser> fetchUser(UUID uuid) {
+        return Publishers.first(userCollection.find(new Document("_id", Ids.match(uuid))).first())
+                .thenApply(document -> document == null ? null : new MongoCurrencyUser(document));
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        MongoProvider.releaseReactiveMongoClient(mongoUri);
+    }
+}
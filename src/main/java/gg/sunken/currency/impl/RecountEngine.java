@@ -0,0 +1,283 @@
+package gg.sunken.currency.impl;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.api.CurrencyTransactionType;
+import gg.sunken.currency.impl.mongo.Decimals;
+import gg.sunken.currency.impl.mongo.Ids;
+import gg.sunken.currency.impl.mongo.UuidMigration;
+import gg.sunken.currency.util.CurrencyExecutor;
+import lombok.extern.java.Log;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Recounts the balances of users that are connected through linked transactions in one pass. The users are found
+ * with one query per hop over the linker ids, their ledgers are summed by a single aggregation and the corrected
+ * balances are written with one bulk write.
+ */
+@Log
+class RecountEngine {
+    final static int DEFAULT_MAX_COMPONENT_SIZE = 1000;
+    private final static int MAX_DEPTH = 5;
+    private final static int MAX_CAS_ATTEMPTS = 5;
+    private final MongoCurrency currency;
+    private final MongoCollection<Document> userCollection;
+    private final MongoCollection<Document> transactionCollection;
+    private volatile int maxComponentSize = DEFAULT_MAX_COMPONENT_SIZE;
+
+    RecountEngine(MongoCurrency currency, MongoCollection<Document> userCollection, MongoCollection<Document> transactionCollection) {
+        this.currency = currency;
+        this.userCollection = userCollection;
+        this.transactionCollection = transactionCollection;
+    }
+
+    /**
+     * Set the number of users a single recount may lock and rewrite.
+     * @param maxComponentSize The maximum number of users in a component.
+     */
+    void maxComponentSize(int maxComponentSize) {
+        if (maxComponentSize < 1) throw new IllegalArgumentException("Max component size must be at least 1");
+        this.maxComponentSize = maxComponentSize;
+    }
+
+    /**
+     * Find the users linked to a user through transfers and transaction blocks, at most {@link #MAX_DEPTH} hops away.
+     * A user linked to more users than the component size allows, such as a shop account, is recounted alone, so
+     * a single recount never locks a large part of the economy.
+     * @param user The UUID of the user to start from.
+     * @return The connected users, starting with the given user.
+     */
+    List<UUID> component(UUID user) {
+        Set<UUID> users = new LinkedHashSet<>();
+        users.add(user);
+        Set<UUID> seenLinkers = new HashSet<>();
+        List<UUID> frontier = List.of(user);
+        for (int depth = 0; depth < MAX_DEPTH && !frontier.isEmpty(); depth++) {
+            List<UUID> linkers = new ArrayList<>();
+            transactionCollection.distinct("linkerId", new Document("user", new Document("$in", Ids.matchAll(frontier)))
+                            .append("currency", currency.name()), BsonValue.class)
+                    .forEach(value -> {
+                        UUID linkerId = Ids.read(value);
+                        if (seenLinkers.add(linkerId)) {
+                            linkers.add(linkerId);
+                        }
+                    });
+            if (linkers.isEmpty()) break;
+
+            List<UUID> next = new ArrayList<>();
+            transactionCollection.distinct("user", new Document("linkerId", new Document("$in", Ids.matchAll(linkers))), BsonValue.class)
+                    .forEach(value -> {
+                        UUID id = Ids.read(value);
+                        if (users.add(id)) {
+                            next.add(id);
+                        }
+                    });
+            if (users.size() > maxComponentSize) {
+                log.warning("User " + user + " is linked to more than " + maxComponentSize + " users in " + currency.name() + ", recounting it alone");
+                return List.of(user);
+            }
+            frontier = next;
+        }
+
+        return new ArrayList<>(users);
+    }
+
+    /**
+     * Recount the given users and write every balance that differs from its ledger. A balance is only overwritten
+     * while the user document is still at the version the recount read, otherwise the recount starts over.
+     * @param users The UUIDs of the users, their accounts must be locked by the caller.
+     */
+    void recount(List<UUID> users) {
+        // Running balances are partitioned by the stored user id, so the ledger of these users must be in one format.
+        UuidMigration.migrateUsers(userCollection, users);
+        UuidMigration.migrateLedger(transactionCollection, users);
+        for (int attempt = 1; ; attempt++) {
+            Map<UUID, Document> current = readCurrent(users);
+            Map<UUID, Long> balances = new HashMap<>();
+            Document history = history(users, balances);
+            if (!currency.allowsNegatives()) {
+                for (int pass = 0; pass < MAX_DEPTH; pass++) {
+                    // Invalidating a transfer also drops the deposit on the other side, which can overdraw that user.
+                    if (invalidateOverdrafts(history, balances) == 0) break;
+                }
+            }
+            sum(history, balances);
+
+            List<UUID> changed = new ArrayList<>();
+            List<WriteModel<Document>> updates = new ArrayList<>();
+            for (UUID user : users) {
+                long balance = balances.get(user);
+                Document document = current.get(user);
+                if (balance == currency.balanceOf(document)) continue;
+
+                changed.add(user);
+                updates.add(new UpdateOneModel<>(
+                        currency.versionFilter(user, MongoCurrencyUser.versionOf(document)),
+                        new Document("$set", new Document(currency.name(), Decimals.toDecimal(balance, currency.precision())))
+                                .append("$inc", new Document(MongoCurrencyUser.VERSION_FIELD, 1))
+                ));
+            }
+            if (updates.isEmpty()) return;
+
+            BulkWriteResult result = userCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            if (result.getMatchedCount() == updates.size()) {
+                for (UUID user : changed) {
+                    currency.updateCachedBalance(user, new Document(currency.name(), Decimals.toDecimal(balances.get(user), currency.precision()))
+                            .append(MongoCurrencyUser.VERSION_FIELD, MongoCurrencyUser.versionOf(current.get(user)) + 1));
+                }
+                return;
+            }
+
+            // Users that were written meanwhile did not match, the next attempt rereads them and skips the others.
+            if (attempt >= MAX_CAS_ATTEMPTS) {
+                throw new IllegalStateException("Balances kept changing, gave up recounting " + users.size() + " users after " + attempt + " attempts");
+            }
+        }
+    }
+
+    /**
+     * Read the balance and version of every user, provisioning the ones that do not exist yet.
+     */
+    private Map<UUID, Document> readCurrent(List<UUID> users) {
+        Document filter = new Document("_id", new Document("$in", Ids.matchAll(users)));
+        Document projection = new Document(currency.name(), 1).append(MongoCurrencyUser.VERSION_FIELD, 1);
+        Map<UUID, Document> current = new HashMap<>();
+        userCollection.find(filter).projection(projection)
+                .forEach(document -> current.put(Ids.read(document.get("_id")), document));
+        if (current.size() == users.size()) return current;
+
+        List<UUID> missing = new ArrayList<>();
+        for (UUID user : users) {
+            if (!current.containsKey(user)) {
+                missing.add(user);
+            }
+        }
+        CurrencyExecutor.await(CurrencyApi.getService().provisionUsers(missing));
+        userCollection.find(filter).projection(projection)
+                .forEach(document -> current.put(Ids.read(document.get("_id")), document));
+        if (current.size() != users.size()) throw new IllegalStateException("Users could not be provisioned");
+
+        return current;
+    }
+
+    /**
+     * Build the filter for the ledger entries to replay. Everything before the latest override of a user is already
+     * folded into it, so each user only replays from there, starting at the overridden balance. The ledger is ordered
+     * by timestamp and then by id, so entries in the same millisecond as the override only replay when their id
+     * comes after it.
+     * @param balances Filled with the starting balance of every user in minor units.
+     */
+    private Document history(List<UUID> users, Map<UUID, Long> balances) {
+        for (UUID user : users) {
+            balances.put(user, 0L);
+        }
+
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("user", new Document("$in", Ids.matchAll(users)))
+                        .append("currency", currency.name())
+                        .append("type", CurrencyTransactionType.OVERRIDE.name())),
+                new Document("$sort", new Document("timestamp", -1).append("_id", -1)),
+                new Document("$group", new Document("_id", "$user")
+                        .append("timestamp", new Document("$first", "$timestamp"))
+                        .append("transaction", new Document("$first", "$_id"))
+                        .append("amount", new Document("$first", "$amount")))
+        );
+
+        List<Document> clauses = new ArrayList<>();
+        Set<UUID> withoutCheckpoint = new LinkedHashSet<>(users);
+        for (Document checkpoint : transactionCollection.aggregate(pipeline)) {
+            UUID user = Ids.read(checkpoint.get("_id"));
+            withoutCheckpoint.remove(user);
+            balances.put(user, Decimals.toMinor(checkpoint.get("amount"), currency.precision()));
+            long timestamp = checkpoint.getLong("timestamp");
+            clauses.add(new Document("user", checkpoint.get("_id")).append("$or", List.of(
+                    new Document("timestamp", new Document("$gt", timestamp)),
+                    new Document("timestamp", timestamp).append("_id", new Document("$gt", checkpoint.get("transaction")))
+            )));
+        }
+        if (!withoutCheckpoint.isEmpty()) {
+            clauses.add(new Document("user", new Document("$in", Ids.matchAll(withoutCheckpoint))));
+        }
+
+        return new Document("currency", currency.name())
+                .append("type", new Document("$in", List.of(CurrencyTransactionType.PAYMENT.name(), CurrencyTransactionType.WITHDRAWAL.name())))
+                .append("$or", clauses);
+    }
+
+    /**
+     * Invalidate the withdrawals that took a balance below zero. Running balances are computed on the database per
+     * user, only withdrawals where the running sum is negative come back. Each invalidated withdrawal raises the
+     * later running balances of its user by its amount, so candidates covered by earlier invalidations are kept.
+     * @return The number of invalidated withdrawals.
+     */
+    private int invalidateOverdrafts(Document history, Map<UUID, Long> startingBalances) {
+        Document signedAmount = new Document("$cond", List.of(
+                new Document("$eq", List.of("$type", CurrencyTransactionType.WITHDRAWAL.name())),
+                new Document("$multiply", List.of("$amount", -1)),
+                "$amount"
+        ));
+        // Starting balances are never negative here, so a negative running sum is necessary for an overdraft.
+        List<Document> pipeline = List.of(
+                new Document("$match", history),
+                new Document("$setWindowFields", new Document("partitionBy", "$user")
+                        .append("sortBy", new Document("timestamp", 1).append("_id", 1))
+                        .append("output", new Document("running", new Document("$sum", signedAmount)
+                                .append("window", new Document("documents", List.of("unbounded", "current")))))),
+                new Document("$match", new Document("type", CurrencyTransactionType.WITHDRAWAL.name())
+                        .append("running", new Document("$lt", 0))),
+                new Document("$sort", new Document("user", 1).append("timestamp", 1).append("_id", 1)),
+                new Document("$project", new Document("user", 1).append("amount", 1).append("running", 1))
+        );
+
+        int invalidated = 0;
+        Map<UUID, Long> restored = new HashMap<>();
+        try (MongoCursor<Document> overdrafts = transactionCollection.aggregate(pipeline).allowDiskUse(true).batchSize(MongoCurrency.SCAN_BATCH_SIZE).iterator()) {
+            while (overdrafts.hasNext()) {
+                Document overdraft = overdrafts.next();
+                UUID user = Ids.read(overdraft.get("user"));
+                long running = Decimals.toMinor(overdraft.get("running"), currency.precision());
+                if (startingBalances.get(user) + running + restored.getOrDefault(user, 0L) >= 0) {
+                    continue;
+                }
+
+                currency.invalidateTransaction(Ids.read(overdraft.get("_id")));
+                restored.merge(user, Decimals.toMinor(overdraft.get("amount"), currency.precision()), Long::sum);
+                invalidated++;
+            }
+        }
+
+        return invalidated;
+    }
+
+    /**
+     * Add the ledger totals of every user to their starting balances.
+     */
+    private void sum(Document history, Map<UUID, Long> balances) {
+        List<Document> pipeline = List.of(
+                new Document("$match", history),
+                new Document("$group", new Document("_id", new Document("user", "$user").append("type", "$type"))
+                        .append("total", new Document("$sum", "$amount")))
+        );
+        for (Document total : transactionCollection.aggregate(pipeline)) {
+            Document key = total.get("_id", Document.class);
+            long amount = Decimals.toMinor(total.get("total"), currency.precision());
+            boolean withdrawal = CurrencyTransactionType.WITHDRAWAL.name().equals(key.getString("type"));
+            balances.merge(Ids.read(key.get("user")), withdrawal ? -amount : amount, Long::sum);
+        }
+    }
+}
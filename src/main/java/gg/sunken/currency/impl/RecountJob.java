@@ -0,0 +1,208 @@
+package gg.sunken.currency.impl;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import gg.sunken.currency.api.CurrencyApi;
+import gg.sunken.currency.impl.mongo.Ids;
+import lombok.extern.java.Log;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Recounts every user of a currency in the background. Users are walked in {@code _id} order one page at a time,
+ * the users of a page are recounted in parallel and the last id of a finished page is saved as a checkpoint, so a
+ * stopped or crashed job resumes after the last complete page.
+ */
+@Log
+public class RecountJob {
+    private final MongoCurrency currency;
+    private final MongoCollection<Document> userCollection;
+    private final MongoCollection<Document> checkpointCollection;
+    private final int concurrency;
+    private final int batchSize;
+    private final RateLimiter rateLimiter;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long total;
+    private volatile boolean stopRequested;
+    private volatile Thread thread;
+
+    RecountJob(MongoCurrency currency, MongoCollection<Document> userCollection, MongoCollection<Document> checkpointCollection,
+               int concurrency, double usersPerSecond, int batchSize) {
+        if (concurrency <= 0) throw new IllegalArgumentException("Concurrency must be greater than 0");
+        if (usersPerSecond <= 0) throw new IllegalArgumentException("Rate limit must be greater than 0");
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be greater than 0");
+
+        this.currency = currency;
+        this.userCollection = userCollection;
+        this.checkpointCollection = checkpointCollection;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.rateLimiter = RateLimiter.create(usersPerSecond);
+    }
+
+    /**
+     * Start the job in the background.
+     * @param resume Whether to continue from the saved checkpoint instead of starting over.
+     * @return Whether the job was started, false if it is already running.
+     */
+    public boolean start(boolean resume) {
+        if (!running.compareAndSet(false, true)) return false;
+
+        stopRequested = false;
+        thread = Thread.ofVirtual().name("currency-" + currency.name() + "-recount").start(() -> {
+            try {
+                Document checkpoint = resume ? checkpointCollection.find(new Document("_id", currency.name())).first() : null;
+                if (checkpoint != null && checkpoint.getBoolean("finished", false)) {
+                    checkpoint = null;
+                }
+
+                processed.set(checkpoint == null ? 0 : checkpoint.getLong("processed"));
+                failed.set(checkpoint == null ? 0 : checkpoint.getLong("failed"));
+                total = userCollection.estimatedDocumentCount();
+                run(checkpoint == null ? null : checkpoint.get("lastId"));
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Recount of " + currency.name() + " stopped", e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Ask the job to stop once the current page is done. The checkpoint is kept, so it can be resumed.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Stop the job and wait until the current page is done and its checkpoint is saved, for shutdown before the
+     * database connection closes.
+     * @param timeoutMillis The maximum time to wait in milliseconds.
+     * @return Whether the job stopped in time.
+     */
+    public boolean stopAndWait(long timeoutMillis) {
+        stop();
+        Thread worker = thread;
+        if (worker == null) return true;
+
+        try {
+            return worker.join(Duration.ofMillis(timeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void run(Object lastId) {
+        log.info("Recounting " + total + " users of " + currency.name() + (lastId == null ? "" : ", resuming after " + lastId));
+        Semaphore permits = new Semaphore(concurrency);
+        while (!stopRequested) {
+            List<Object> page = new ArrayList<>(batchSize);
+            userCollection.find(after(lastId))
+                    .projection(new Document("_id", 1))
+                    .sort(new Document("_id", 1))
+                    .limit(batchSize)
+                    .forEach(document -> page.add(document.get("_id")));
+            if (page.isEmpty()) {
+                saveCheckpoint(lastId, true);
+                log.info("Recount of " + currency.name() + " finished, " + processed.get() + " users, " + failed.get() + " failed");
+                return;
+            }
+
+            List<CompletableFuture<Void>> recounts = new ArrayList<>(page.size());
+            for (Object id : page) {
+                permits.acquireUninterruptibly();
+                rateLimiter.acquire();
+                recounts.add(CurrencyApi.getService().executor().supply(() -> {
+                    try {
+                        // Users already recounted as part of another user's linked group are on cooldown and skipped.
+                        currency.recalculateBalance(Ids.read(id));
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        log.log(Level.WARNING, "Failed to recount " + id + " of " + currency.name(), e);
+                    } finally {
+                        processed.incrementAndGet();
+                        permits.release();
+                    }
+                    return null;
+                }));
+            }
+
+            CompletableFuture.allOf(recounts.toArray(CompletableFuture[]::new)).join();
+            lastId = page.get(page.size() - 1);
+            saveCheckpoint(lastId, false);
+        }
+
+        log.info("Recount of " + currency.name() + " stopped after " + processed.get() + " users, resume with the last checkpoint");
+    }
+
+    /**
+     * Build the filter for the users after an id. Mongo sorts string ids before binary ids and {@code $gt} only
+     * matches ids of the same type, so after a string id every binary id still follows.
+     */
+    private static Document after(Object lastId) {
+        if (lastId == null) return new Document();
+        if (lastId instanceof String) {
+            return new Document("$or", List.of(
+                    new Document("_id", new Document("$gt", lastId)),
+                    new Document("_id", new Document("$type", "binData"))
+            ));
+        }
+        return new Document("_id", new Document("$gt", lastId));
+    }
+
+    private void saveCheckpoint(Object lastId, boolean finished) {
+        Document checkpoint = new Document("_id", currency.name())
+                .append("lastId", lastId)
+                .append("processed", processed.get())
+                .append("failed", failed.get())
+                .append("finished", finished)
+                .append("updatedAt", System.currentTimeMillis());
+        checkpointCollection.replaceOne(new Document("_id", currency.name()), checkpoint, new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Whether the job is running.
+     * @return True while the job is running.
+     */
+    public boolean running() {
+        return running.get();
+    }
+
+    /**
+     * Get the number of users recounted so far, including the ones before the checkpoint the job resumed from.
+     * @return The number of processed users.
+     */
+    public long processed() {
+        return processed.get();
+    }
+
+    /**
+     * Get the number of users whose recount failed.
+     * @return The number of failed users.
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * Get the estimated number of users the job walks through.
+     * @return The estimated total.
+     */
+    public long total() {
+        return total;
+    }
+}
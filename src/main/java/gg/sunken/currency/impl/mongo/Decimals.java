@@ -0,0 +1,59 @@
+package gg.sunken.currency.impl.mongo;
+
+import org.bson.types.Decimal128;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversion between minor units held in memory and the amounts stored in Mongo. Amounts are written as
+ * {@link Decimal128} in major units, so documents stay readable, and read back from any numeric BSON type,
+ * which covers documents written before amounts were stored as decimals.
+ */
+public final class Decimals {
+
+    private Decimals() {
+    }
+
+    /**
+     * Convert minor units to the stored decimal.
+     * @param minor The amount in minor units.
+     * @param precision The number of decimal places of the currency.
+     * @return The amount in major units.
+     */
+    public static Decimal128 toDecimal(long minor, int precision) {
+        return new Decimal128(BigDecimal.valueOf(minor, precision));
+    }
+
+    /**
+     * Convert a stored amount to minor units, rounding half-even to the precision of the currency.
+     * @param value The stored value, may be missing.
+     * @param precision The number of decimal places of the currency.
+     * @return The amount in minor units, 0 if the value is missing.
+     */
+    public static long toMinor(@Nullable Object value, int precision) {
+        if (value == null) return 0;
+
+        BigDecimal decimal;
+        if (value instanceof Decimal128 decimal128) {
+            if (decimal128.isNaN() || decimal128.isInfinite()) {
+                throw new IllegalArgumentException("Amount is not a finite number: " + decimal128);
+            }
+            try {
+                decimal = decimal128.bigDecimalValue();
+            } catch (ArithmeticException e) {
+                // Negative zero has no BigDecimal representation.
+                return 0;
+            }
+        } else if (value instanceof Long || value instanceof Integer) {
+            decimal = BigDecimal.valueOf(((Number) value).longValue());
+        } else if (value instanceof Number number) {
+            decimal = BigDecimal.valueOf(number.doubleValue());
+        } else {
+            throw new IllegalArgumentException("Amount is not a number: " + value);
+        }
+
+        return decimal.movePointRight(precision).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+    }
+}
@@ -0,0 +1,150 @@
+package gg.sunken.currency.impl.mongo;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.Binary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Conversion between UUIDs and the ids stored in Mongo. UUIDs are stored either as 36 character strings, the
+ * original format, or as BSON binary subtype 4. New documents are written in the configured format, reads accept
+ * both. Until the migration of existing documents is complete, filters match both formats as well.
+ */
+public final class Ids {
+    private static volatile Format format = Format.STRING;
+    private static volatile boolean migrated = false;
+
+    private Ids() {
+    }
+
+    /**
+     * Set the format new documents are written in.
+     * @param format The storage format.
+     */
+    public static void format(Format format) {
+        Ids.format = format;
+    }
+
+    /**
+     * Get the format new documents are written in.
+     * @return The storage format.
+     */
+    public static Format format() {
+        return format;
+    }
+
+    /**
+     * Mark whether every document is stored in the configured format, so filters stop matching the other one.
+     * @param migrated True once the migration is complete.
+     */
+    public static void migrated(boolean migrated) {
+        Ids.migrated = migrated;
+    }
+
+    /**
+     * Whether documents written in the old string format can still exist.
+     * @return True while binary ids are configured and the migration is not complete.
+     */
+    public static boolean mixed() {
+        return format == Format.BINARY && !migrated;
+    }
+
+    /**
+     * Convert a UUID to the value stored in new documents.
+     * @param uuid The UUID.
+     * @return The stored value in the configured format.
+     */
+    public static Object write(UUID uuid) {
+        return format == Format.BINARY ? uuid : uuid.toString();
+    }
+
+    /**
+     * Build the filter value matching a UUID in any format it can be stored in. Never use it in upserts, an upsert
+     * can not derive an id from {@code $in}.
+     * @param uuid The UUID.
+     * @return The stored value, or an {@code $in} over both formats while they are mixed.
+     */
+    public static Object match(UUID uuid) {
+        return mixed() ? new Document("$in", List.of(uuid, uuid.toString())) : write(uuid);
+    }
+
+    /**
+     * Build the values matching any of the given UUIDs in any format, for use in {@code $in}.
+     * @param uuids The UUIDs.
+     * @return The stored values.
+     */
+    public static List<Object> matchAll(Collection<UUID> uuids) {
+        boolean mixed = mixed();
+        List<Object> values = new ArrayList<>(mixed ? uuids.size() * 2 : uuids.size());
+        for (UUID uuid : uuids) {
+            if (mixed) {
+                values.add(uuid);
+                values.add(uuid.toString());
+            } else {
+                values.add(write(uuid));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Read a stored id in either format.
+     * @param value The stored value, a string, a UUID decoded by the driver, or raw binary.
+     * @return The UUID.
+     * @throws IllegalArgumentException If the value is not a UUID.
+     */
+    public static UUID read(Object value) {
+        if (value instanceof UUID uuid) return uuid;
+        if (value instanceof String string) return UUID.fromString(string);
+        if (value instanceof BsonString string) return UUID.fromString(string.getValue());
+        if (value instanceof BsonBinary binary && binary.getType() == BsonBinarySubType.UUID_STANDARD.getValue()) {
+            return binary.asUuid(UuidRepresentation.STANDARD);
+        }
+        if (value instanceof Binary binary && binary.getType() == BsonBinarySubType.UUID_STANDARD.getValue()) {
+            return new BsonBinary(binary.getType(), binary.getData()).asUuid(UuidRepresentation.STANDARD);
+        }
+        throw new IllegalArgumentException("Not a UUID: " + value);
+    }
+
+    /**
+     * Compare two stored ids in the order Mongo sorts them: strings before binaries, strings by their characters
+     * and binary UUIDs by their unsigned bytes.
+     */
+    public static int compare(Object a, Object b) {
+        boolean aString = a instanceof String || a instanceof BsonString;
+        boolean bString = b instanceof String || b instanceof BsonString;
+        if (aString != bString) return aString ? -1 : 1;
+        if (aString) return stringOf(a).compareTo(stringOf(b));
+
+        UUID first = read(a);
+        UUID second = read(b);
+        int high = Long.compareUnsigned(first.getMostSignificantBits(), second.getMostSignificantBits());
+        return high != 0 ? high : Long.compareUnsigned(first.getLeastSignificantBits(), second.getLeastSignificantBits());
+    }
+
+    private static String stringOf(Object value) {
+        return value instanceof BsonValue bson ? bson.asString().getValue() : (String) value;
+    }
+
+    /**
+     * How UUIDs are stored.
+     */
+    public enum Format {
+        /**
+         * 36 character strings, the original format.
+         */
+        STRING,
+        /**
+         * BSON binary subtype 4, less than half the size in documents and indexes.
+         */
+        BINARY
+    }
+}
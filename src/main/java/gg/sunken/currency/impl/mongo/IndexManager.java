@@ -0,0 +1,140 @@
+package gg.sunken.currency.impl.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import lombok.extern.java.Log;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Declares the indexes the plugin relies on and the hot queries they serve. {@link #ensure()} creates the missing
+ * indexes on a background thread, then explains every declared query and warns about the ones the database still
+ * answers with a collection scan. Indexes that are no longer declared are left for the administrator to drop.
+ */
+@Log
+public class IndexManager {
+    private final MongoDatabase database;
+    private final List<Index> indexes = new ArrayList<>();
+    private final List<Query> queries = new ArrayList<>();
+
+    public IndexManager(MongoDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Declare an index.
+     * @param collection The name of the collection.
+     * @param keys The keys of the index, in order.
+     * @return This index manager.
+     */
+    public IndexManager index(String collection, Document keys) {
+        indexes.add(new Index(collection, keys));
+        return this;
+    }
+
+    /**
+     * Declare a hot query that has to be served by an index.
+     * @param description The name of the query in warnings.
+     * @param collection The name of the collection.
+     * @param filter A representative filter of the query.
+     * @param sort The sort of the query, may be empty.
+     * @return This index manager.
+     */
+    public IndexManager query(String description, String collection, Document filter, Document sort) {
+        queries.add(new Query(description, collection, filter, sort));
+        return this;
+    }
+
+    /**
+     * Create the missing indexes and check the declared queries on a background thread, so startup does not wait
+     * for index builds on large collections.
+     */
+    public void ensure() {
+        Thread.ofVirtual().name("currency-index-manager").start(() -> {
+            try {
+                build();
+                explain();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Failed to verify indexes", e);
+            }
+        });
+    }
+
+    private void build() {
+        Map<String, List<Index>> byCollection = new LinkedHashMap<>();
+        for (Index index : indexes) {
+            byCollection.computeIfAbsent(index.collection(), ignored -> new ArrayList<>()).add(index);
+        }
+
+        for (Map.Entry<String, List<Index>> entry : byCollection.entrySet()) {
+            MongoCollection<Document> collection = database.getCollection(entry.getKey());
+            Set<Document> existing = new HashSet<>();
+            for (Document index : collection.listIndexes()) {
+                existing.add(index.get("key", Document.class));
+            }
+
+            List<IndexModel> missing = new ArrayList<>();
+            for (Index index : entry.getValue()) {
+                if (!existing.contains(index.keys())) {
+                    missing.add(new IndexModel(index.keys(), new IndexOptions().background(true)));
+                }
+            }
+            if (missing.isEmpty()) {
+                log.fine("Verified " + entry.getValue().size() + " indexes on " + entry.getKey());
+                continue;
+            }
+
+            log.info("Building " + missing.size() + " indexes on " + entry.getKey());
+            collection.createIndexes(missing);
+            log.info("Built " + missing.size() + " indexes on " + entry.getKey());
+        }
+    }
+
+    private void explain() {
+        for (Query query : queries) {
+            Document plan = database.getCollection(query.collection())
+                    .find(query.filter())
+                    .sort(query.sort())
+                    .limit(1)
+                    .explain();
+            Document planner = plan.get("queryPlanner", Document.class);
+            if (planner != null && scans(planner.get("winningPlan"))) {
+                log.warning("Query " + query.description() + " on " + query.collection() + " falls back to a collection scan: "
+                        + query.filter().toJson() + " sorted by " + query.sort().toJson());
+            }
+        }
+    }
+
+    /**
+     * Whether any stage of a plan is a collection scan. Plan shapes differ between query engines, so every nested
+     * document is searched.
+     */
+    private static boolean scans(Object plan) {
+        if (plan instanceof Document document) {
+            if ("COLLSCAN".equals(document.get("stage"))) return true;
+            for (Object value : document.values()) {
+                if (scans(value)) return true;
+            }
+        } else if (plan instanceof List<?> list) {
+            for (Object value : list) {
+                if (scans(value)) return true;
+            }
+        }
+        return false;
+    }
+
+    private record Index(String collection, Document keys) {
+    }
+
+    private record Query(String description, String collection, Document filter, Document sort) {
+    }
+}
@@ -0,0 +1,270 @@
+package gg.sunken.currency.impl.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import gg.sunken.currency.impl.MongoCurrencyUser;
+import lombok.extern.java.Log;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Write-behind writer for a single currency. Ledger documents and balance deltas are queued in memory and
+ * flushed as ordered bulk writes once the batch size is reached or the flush interval elapses. Deltas for
+ * the same user are coalesced into a single {@code $inc} per flush.
+ */
+@Log
+public class MongoLedgerWriter {
+    private final String field;
+    private final MongoCollection<Document> userCollection;
+    private final MongoCollection<Document> transactionCollection;
+    private final int precision;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private final Object flushLock = new Object();
+
+    private List<Entry> pendingLedger = new ArrayList<>();
+    private Map<UUID, Long> pendingDeltas = new HashMap<>();
+    private Map<UUID, Long> inFlightDeltas = new HashMap<>();
+    private boolean closed;
+
+    public MongoLedgerWriter(String field, MongoCollection<Document> userCollection, MongoCollection<Document> transactionCollection, int precision, int batchSize, long flushIntervalMillis) {
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be greater than 0");
+        if (flushIntervalMillis <= 0) throw new IllegalArgumentException("Flush interval must be greater than 0");
+
+        this.field = field;
+        this.userCollection = userCollection;
+        this.transactionCollection = transactionCollection;
+        this.precision = precision;
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "currency-" + field + "-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a ledger document and the balance delta it causes.
+     * @param ledgerDocument The transaction document to insert.
+     * @param user The user whose balance changes.
+     * @param delta The minor units to add to the balance, negative for withdrawals.
+     */
+    public void enqueue(Document ledgerDocument, UUID user, long delta) {
+        int size;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Ledger writer for " + field + " is closed");
+
+            pendingLedger.add(new Entry(ledgerDocument, user, delta));
+            pendingDeltas.merge(user, delta, Long::sum);
+            size = pendingLedger.size();
+        }
+
+        if (size >= batchSize && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Get the balance delta for a user that has been queued but not yet written to the database. Deltas leave
+     * this count in the same step that marks them written or puts them back in the queue, so none is counted twice.
+     * @param user The UUID of the user.
+     * @return The pending delta in minor units, 0 if nothing is pending.
+     */
+    public synchronized long pendingDelta(UUID user) {
+        return pendingDeltas.getOrDefault(user, 0L) + inFlightDeltas.getOrDefault(user, 0L);
+    }
+
+    /**
+     * Get the number of ledger documents waiting to be written.
+     * @return The number of queued ledger documents.
+     */
+    public synchronized int pendingCount() {
+        return pendingLedger.size();
+    }
+
+    /**
+     * Write everything that is currently queued, blocking until the bulk writes complete.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+
+            List<Entry> ledger;
+            Map<UUID, Long> deltas;
+            synchronized (this) {
+                if (pendingLedger.isEmpty() && pendingDeltas.isEmpty()) return;
+
+                ledger = pendingLedger;
+                deltas = pendingDeltas;
+                pendingLedger = new ArrayList<>();
+                pendingDeltas = new HashMap<>();
+                inFlightDeltas = new HashMap<>(deltas);
+            }
+
+            try {
+                try {
+                    writeLedger(ledger, deltas);
+                } catch (RuntimeException e) {
+                    requeueDeltas(new ArrayList<>(deltas.keySet()), deltas);
+                    throw e;
+                }
+                writeDeltas(deltas);
+            } finally {
+                synchronized (this) {
+                    inFlightDeltas.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the flush timer and drain the queue completely.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warning("Ledger writer for " + field + " did not stop in time, draining anyway");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int attempts = 0;
+        while (pendingCount() > 0 || hasPendingDeltas()) {
+            if (attempts++ >= 5) {
+                log.severe("Failed to drain ledger writer for " + field + ", " + pendingCount() + " ledger entries were not written");
+                return;
+            }
+            flushQuietly();
+        }
+    }
+
+    private synchronized boolean hasPendingDeltas() {
+        return !pendingDeltas.isEmpty();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Failed to flush ledger writer for " + field, e);
+        }
+    }
+
+    /**
+     * Insert the ledger documents. The delta of a rejected document is taken out of the deltas, so no balance
+     * changes without a ledger entry behind it.
+     */
+    private void writeLedger(List<Entry> ledger, Map<UUID, Long> deltas) {
+        if (ledger.isEmpty()) return;
+
+        List<WriteModel<Document>> models = new ArrayList<>(ledger.size());
+        for (Entry entry : ledger) {
+            models.add(new InsertOneModel<>(entry.document()));
+        }
+
+        try {
+            transactionCollection.bulkWrite(models, new BulkWriteOptions().ordered(true));
+        } catch (MongoBulkWriteException e) {
+            // Ordered writes stop at the first error, everything before it is persisted and the failing
+            // document itself is rejected for good (usually a duplicate id), so only the tail is retried.
+            int failedIndex = e.getWriteErrors().get(0).getIndex();
+            Entry rejected = ledger.get(failedIndex);
+            log.severe("Dropped ledger entry " + rejected.document().get("_id") + " for " + field + ": " + e.getWriteErrors().get(0).getMessage());
+            reject(rejected, deltas);
+            requeueLedger(ledger.subList(failedIndex + 1, ledger.size()));
+        } catch (RuntimeException e) {
+            requeueLedger(ledger);
+            throw e;
+        }
+    }
+
+    private void writeDeltas(Map<UUID, Long> deltas) {
+        if (deltas.isEmpty()) return;
+
+        List<UUID> users = new ArrayList<>(deltas.size());
+        List<WriteModel<Document>> models = new ArrayList<>(deltas.size());
+        for (Map.Entry<UUID, Long> entry : deltas.entrySet()) {
+            if (entry.getValue() == 0) continue;
+
+            users.add(entry.getKey());
+            models.add(new UpdateOneModel<>(
+                    new Document("_id", Ids.write(entry.getKey())),
+                    new Document("$inc", new Document(field, Decimals.toDecimal(entry.getValue(), precision))
+                            .append(MongoCurrencyUser.VERSION_FIELD, 1)),
+                    new UpdateOptions().upsert(true)
+            ));
+        }
+        if (models.isEmpty()) return;
+
+        try {
+            UuidMigration.migrateUsers(userCollection, users);
+            userCollection.bulkWrite(models, new BulkWriteOptions().ordered(true));
+            written(users);
+        } catch (MongoBulkWriteException e) {
+            int failedIndex = e.getWriteErrors().get(0).getIndex();
+            written(users.subList(0, failedIndex));
+            requeueDeltas(users.subList(failedIndex, users.size()), deltas);
+            throw e;
+        } catch (RuntimeException e) {
+            requeueDeltas(users, deltas);
+            throw e;
+        }
+    }
+
+    private synchronized void reject(Entry entry, Map<UUID, Long> deltas) {
+        deltas.merge(entry.user(), -entry.delta(), Long::sum);
+        inFlightDeltas.merge(entry.user(), -entry.delta(), Long::sum);
+    }
+
+    private synchronized void requeueLedger(List<Entry> ledger) {
+        List<Entry> requeued = new ArrayList<>(ledger.size() + pendingLedger.size());
+        requeued.addAll(ledger);
+        requeued.addAll(pendingLedger);
+        pendingLedger = requeued;
+    }
+
+    /**
+     * Mark deltas as written, the stored balances include them from now on.
+     */
+    private synchronized void written(List<UUID> users) {
+        for (UUID user : users) {
+            inFlightDeltas.remove(user);
+        }
+    }
+
+    private synchronized void requeueDeltas(List<UUID> users, Map<UUID, Long> deltas) {
+        for (UUID user : users) {
+            inFlightDeltas.remove(user);
+            pendingDeltas.merge(user, deltas.get(user), Long::sum);
+        }
+    }
+
+    /**
+     * A queued ledger document and the balance delta it causes.
+     */
+    private record Entry(Document document, UUID user, long delta) {
+    }
+}
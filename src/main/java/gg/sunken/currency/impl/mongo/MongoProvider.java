@@ -1,7 +1,10 @@
 package gg.sunken.currency.impl.mongo;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import org.bson.UuidRepresentation;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -9,13 +12,15 @@ import java.util.Map;
 public class MongoProvider {
     private final static Map<String, MongoClient> mongoClients = new HashMap<>();
     private final static Map<String, Integer> mongoClientReferences = new HashMap<>();
+    private final static Map<String, com.mongodb.reactivestreams.client.MongoClient> reactiveMongoClients = new HashMap<>();
+    private final static Map<String, Integer> reactiveMongoClientReferences = new HashMap<>();
 
     public static MongoClient getMongoClient(String uri) {
         if (mongoClients.containsKey(uri)) {
             mongoClientReferences.put(uri, mongoClientReferences.get(uri) + 1);
             return mongoClients.get(uri);
         } else {
-            MongoClient mongoClient = MongoClients.create(uri);
+            MongoClient mongoClient = MongoClients.create(settings(uri));
             mongoClients.put(uri, mongoClient);
             mongoClientReferences.put(uri, 1);
             return mongoClient;
@@ -35,4 +40,39 @@ public class MongoProvider {
         }
     }
 
+    public static com.mongodb.reactivestreams.client.MongoClient getReactiveMongoClient(String uri) {
+        if (reactiveMongoClients.containsKey(uri)) {
+            reactiveMongoClientReferences.put(uri, reactiveMongoClientReferences.get(uri) + 1);
+            return reactiveMongoClients.get(uri);
+        } else {
+            com.mongodb.reactivestreams.client.MongoClient mongoClient = com.mongodb.reactivestreams.client.MongoClients.create(settings(uri));
+            reactiveMongoClients.put(uri, mongoClient);
+            reactiveMongoClientReferences.put(uri, 1);
+            return mongoClient;
+        }
+    }
+
+    /**
+     * Client settings for a connection string. UUIDs are encoded as binary subtype 4 and decoded back to
+     * {@link java.util.UUID}, string ids are not affected.
+     */
+    private static MongoClientSettings settings(String uri) {
+        return MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(uri))
+                .uuidRepresentation(UuidRepresentation.STANDARD)
+                .build();
+    }
+
+    public static void releaseReactiveMongoClient(String uri) {
+        if (reactiveMongoClientReferences.containsKey(uri)) {
+            int references = reactiveMongoClientReferences.get(uri);
+            if (references == 1) {
+                reactiveMongoClients.get(uri).close();
+                reactiveMongoClients.remove(uri);
+                reactiveMongoClientReferences.remove(uri);
+            } else {
+                reactiveMongoClientReferences.put(uri, references - 1);
+            }
+        }
+    }
 }
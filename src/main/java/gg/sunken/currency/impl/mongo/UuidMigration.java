@@ -0,0 +1,191 @@
+package gg.sunken.currency.impl.mongo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOptions;
+import lombok.extern.java.Log;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Moves documents from string ids to binary ids while the server keeps running. A document cannot change its
+ * {@code _id}, so every document is copied with converted ids and the original is deleted afterwards.
+ * <p>
+ * Once binary ids are configured every write uses them, so a user document is moved before it is first written:
+ * balance updates that miss move the user and retry, and bulk writes move their users up front. The batched
+ * migration moves everything else and records when it is complete, after which filters stop matching strings.
+ * Every server has to run with binary ids before the migration starts.
+ */
+@Log
+public class UuidMigration {
+    private final static String STATE_COLLECTION = "currency_metadata";
+    private final static String STATE_ID = "uuid-migration";
+    private final static int LEDGER_BATCH_SIZE = 1000;
+    private final static List<String> ID_FIELDS = List.of("_id", "user", "linkerId");
+    private final MongoDatabase database;
+
+    public UuidMigration(MongoDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Read whether the migration is complete and apply it to {@link Ids}.
+     */
+    public void loadState() {
+        Document state = database.getCollection(STATE_COLLECTION).find(new Document("_id", STATE_ID)).first();
+        Ids.migrated(state != null && state.getBoolean("complete", false));
+    }
+
+    /**
+     * Move every document with a string id in batches.
+     * @param batchSize The number of documents moved at once.
+     * @param pauseMillis The pause between batches, to leave room for regular traffic.
+     * @return The number of moved documents.
+     * @throws IllegalStateException If binary ids are not configured.
+     * @throws InterruptedException If the migration was interrupted between batches.
+     */
+    public long run(int batchSize, long pauseMillis) throws InterruptedException {
+        if (Ids.format() != Ids.Format.BINARY) throw new IllegalStateException("Binary ids are not configured");
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be greater than 0");
+
+        long moved = 0;
+        boolean complete = true;
+        for (String name : List.of("users", "transactions", "deleted_transactions")) {
+            MongoCollection<Document> collection = database.getCollection(name);
+            boolean users = name.equals("users");
+            String lastId = null;
+            while (true) {
+                Document filter = new Document("$type", "string");
+                if (lastId != null) {
+                    filter.append("$gt", lastId);
+                }
+                List<Document> batch = collection.find(new Document("_id", filter))
+                        .sort(new Document("_id", 1))
+                        .limit(batchSize)
+                        .into(new ArrayList<>());
+                if (batch.isEmpty()) break;
+
+                int count = move(collection, batch, !users);
+                complete &= count == batch.size();
+                moved += count;
+                lastId = batch.get(batch.size() - 1).getString("_id");
+                log.info("Moved " + moved + " documents to binary ids, now at " + name);
+                Thread.sleep(pauseMillis);
+            }
+        }
+
+        if (complete) {
+            database.getCollection(STATE_COLLECTION).replaceOne(new Document("_id", STATE_ID),
+                    new Document("_id", STATE_ID).append("complete", true).append("completedAt", System.currentTimeMillis()),
+                    new ReplaceOptions().upsert(true));
+            Ids.migrated(true);
+            log.info("Migration to binary ids complete, " + moved + " documents moved");
+        } else {
+            log.warning("Some users exist with both id formats and were left in place, see the warnings above");
+        }
+        return moved;
+    }
+
+    /**
+     * Move the documents of the given users that still have string ids. Does nothing once the migration is complete.
+     * @param collection The users collection.
+     * @param uuids The UUIDs of the users.
+     * @return The number of moved documents.
+     */
+    public static int migrateUsers(MongoCollection<Document> collection, Collection<UUID> uuids) {
+        if (!Ids.mixed() || uuids.isEmpty()) return 0;
+
+        List<String> ids = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            ids.add(uuid.toString());
+        }
+        List<Document> documents = collection.find(new Document("_id", new Document("$in", ids))).into(new ArrayList<>());
+        if (documents.isEmpty()) return 0;
+
+        return move(collection, documents, false);
+    }
+
+    /**
+     * Move the ledger entries of the given users that still have string ids, in batches. Does nothing once the
+     * migration is complete.
+     * @param collection A ledger collection.
+     * @param uuids The UUIDs of the users.
+     * @return The number of moved documents.
+     */
+    public static int migrateLedger(MongoCollection<Document> collection, Collection<UUID> uuids) {
+        if (!Ids.mixed() || uuids.isEmpty()) return 0;
+
+        List<String> ids = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            ids.add(uuid.toString());
+        }
+        int moved = 0;
+        while (true) {
+            List<Document> documents = collection.find(new Document("user", new Document("$in", ids)))
+                    .limit(LEDGER_BATCH_SIZE)
+                    .into(new ArrayList<>());
+            if (documents.isEmpty()) return moved;
+
+            moved += move(collection, documents, true);
+        }
+    }
+
+    /**
+     * Copy the documents with binary ids and delete the originals that were copied.
+     * @param replaceDuplicates Whether an existing binary copy replaces the original. Ledger entries never change, so
+     * their copy is identical, but a user that exists in both formats holds two balances and is left for an admin.
+     * @return The number of moved documents.
+     */
+    private static int move(MongoCollection<Document> collection, List<Document> documents, boolean replaceDuplicates) {
+        List<Document> converted = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            Document copy = new Document(document);
+            for (String field : ID_FIELDS) {
+                if (copy.get(field) instanceof String id) {
+                    copy.put(field, UUID.fromString(id));
+                }
+            }
+            converted.add(copy);
+        }
+
+        Set<Integer> kept = new HashSet<>();
+        MongoBulkWriteException failure = null;
+        try {
+            collection.insertMany(converted, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                boolean duplicate = ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY;
+                if (!duplicate) {
+                    failure = e;
+                    kept.add(error.getIndex());
+                } else if (!replaceDuplicates) {
+                    log.warning("User " + documents.get(error.getIndex()).get("_id") + " exists with both id formats, merge the documents by hand");
+                    kept.add(error.getIndex());
+                }
+            }
+        }
+
+        List<Object> originals = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            if (!kept.contains(i)) {
+                originals.add(documents.get(i).get("_id"));
+            }
+        }
+        if (!originals.isEmpty()) {
+            collection.deleteMany(new Document("_id", new Document("$in", originals)));
+        }
+        if (failure != null) throw failure;
+
+        return originals.size();
+    }
+}
@@ -0,0 +1,141 @@
+package gg.sunken.currency.util;
+
+import com.google.common.util.concurrent.Striped;
+import gg.sunken.currency.api.AccountLockTimeoutException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Striped locks over user accounts. Every balance change holds the locks of the accounts it touches, so changes
+ * to the same account are serialized locally. Operations on several accounts take their stripes in one fixed
+ * order, which keeps two transfers between the same users from deadlocking each other.
+ * <p>
+ * The stripes are single-permit semaphores so a lease can be released on another thread than the one that took
+ * it. They are not reentrant, an operation holding a lease must not start another locked operation on the same
+ * accounts.
+ */
+public class AccountLocks {
+    private final Striped<Semaphore> stripes;
+    private final long timeoutMillis;
+
+    public AccountLocks(int stripes, long timeoutMillis) {
+        if (stripes <= 0) throw new IllegalArgumentException("Stripes must be greater than 0");
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("Timeout must be greater than 0");
+
+        this.stripes = Striped.semaphore(stripes, 1);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Lock the accounts of the given users, waiting at most the lock timeout.
+     * @param users The UUIDs of the users.
+     * @return The lease to close once the operation is done.
+     * @throws AccountLockTimeoutException If the accounts could not be locked in time.
+     */
+    public Lease acquire(UUID... users) {
+        return acquire(Arrays.asList(users));
+    }
+
+    /**
+     * Lock the accounts of the given users, waiting at most the lock timeout.
+     * @param users The UUIDs of the users.
+     * @return The lease to close once the operation is done.
+     * @throws AccountLockTimeoutException If the accounts could not be locked in time.
+     */
+    public Lease acquire(Collection<UUID> users) {
+        List<Semaphore> semaphores = stripesOf(users);
+        List<Semaphore> acquired = new ArrayList<>(semaphores.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            for (Semaphore semaphore : semaphores) {
+                if (!semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    release(acquired);
+                    throw new AccountLockTimeoutException(users);
+                }
+                acquired.add(semaphore);
+            }
+        } catch (InterruptedException e) {
+            release(acquired);
+            Thread.currentThread().interrupt();
+            throw new AccountLockTimeoutException(users);
+        }
+
+        return new Lease(acquired);
+    }
+
+    /**
+     * Lock the accounts of the given users without parking the calling thread. Uncontended locks are taken right
+     * away, otherwise the wait happens on the executor.
+     * @param executor The executor to wait on.
+     * @param users The UUIDs of the users.
+     * @return A future with the lease, failed with {@link AccountLockTimeoutException} if the accounts could not
+     * be locked in time.
+     */
+    public CompletableFuture<Lease> acquireAsync(CurrencyExecutor executor, Collection<UUID> users) {
+        List<Semaphore> semaphores;
+        try {
+            semaphores = stripesOf(users);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        List<Semaphore> acquired = new ArrayList<>(semaphores.size());
+        for (Semaphore semaphore : semaphores) {
+            if (!semaphore.tryAcquire()) {
+                release(acquired);
+                return executor.supply(() -> acquire(users));
+            }
+            acquired.add(semaphore);
+        }
+
+        return CompletableFuture.completedFuture(new Lease(acquired));
+    }
+
+    private List<Semaphore> stripesOf(Collection<UUID> users) {
+        for (UUID user : users) {
+            if (user == null) throw new IllegalArgumentException("User cannot be null");
+        }
+
+        // bulkGet returns the stripes in index order, users that share a stripe show up as adjacent duplicates.
+        List<Semaphore> semaphores = new ArrayList<>(users.size());
+        for (Semaphore semaphore : stripes.bulkGet(users)) {
+            if (semaphores.isEmpty() || semaphores.get(semaphores.size() - 1) != semaphore) {
+                semaphores.add(semaphore);
+            }
+        }
+        return semaphores;
+    }
+
+    private static void release(List<Semaphore> semaphores) {
+        for (int i = semaphores.size() - 1; i >= 0; i--) {
+            semaphores.get(i).release();
+        }
+    }
+
+    /**
+     * Locks held on a set of accounts. Closing a lease more than once has no effect.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final List<Semaphore> semaphores;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(List<Semaphore> semaphores) {
+            this.semaphores = semaphores;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(semaphores);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package gg.sunken.currency.util;
+
+import lombok.extern.java.Log;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Executor for blocking database work. Every task gets its own virtual thread, and a semaphore caps how many
+ * of them may run at once so a burst of operations cannot exhaust the connection pool.
+ */
+@Log
+public class CurrencyExecutor implements Executor {
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false);
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public CurrencyExecutor(int maxConcurrency) {
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("Max concurrency must be greater than 0");
+
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("currency-io-", 0).factory());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queued.incrementAndGet();
+        delegate.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                queued.decrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            WORKER.set(true);
+            try {
+                task.run();
+            } catch (Throwable throwable) {
+                log.log(Level.SEVERE, "Uncaught exception in currency I/O task", throwable);
+            } finally {
+                active.decrementAndGet();
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * Run a supplier on the executor. Calls made from a task that is already running on the executor run inline,
+     * so nested operations never wait for a slot held by their own caller.
+     * @param supplier The work to run.
+     * @return A CompletableFuture completed with the result of the supplier.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        if (onWorker()) {
+            try {
+                return CompletableFuture.completedFuture(supplier.get());
+            } catch (Throwable throwable) {
+                return CompletableFuture.failedFuture(throwable);
+            }
+        }
+
+        return CompletableFuture.supplyAsync(supplier, this);
+    }
+
+    /**
+     * Whether the current thread is running a task of a currency executor and holds one of its slots.
+     * @return True on an executor thread.
+     */
+    public static boolean onWorker() {
+        return WORKER.get();
+    }
+
+    /**
+     * Wait for a future and rethrow its failure unwrapped, for blocking wrappers around asynchronous operations.
+     * @param future The future to wait for.
+     * @return The result of the future.
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of tasks waiting for a free slot.
+     * @return The number of queued tasks.
+     */
+    public int queueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Get the number of tasks currently running.
+     * @return The number of active tasks.
+     */
+    public int activeTasks() {
+        return active.get();
+    }
+
+    /**
+     * Get the maximum number of tasks that may run at once.
+     * @return The concurrency cap.
+     */
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Stop accepting tasks and wait for the running ones to finish.
+     */
+    public void shutdown() {
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warning("Currency I/O executor did not finish in time, " + (queued.get() + active.get()) + " tasks left");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package gg.sunken.currency.impl;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MongoCurrencyTransactionPageTest {
+
+    @Test
+    void binaryIdRoundTrips() {
+        UUID id = UUID.randomUUID();
+        Document position = MongoCurrencyTransactionPage.decodeToken(MongoCurrencyTransactionPage.encodeToken(3, 125, 1_700_000_000_123L, id));
+
+        assertEquals(3, position.getInteger("page"));
+        assertEquals(125L, position.getLong("total"));
+        assertEquals(1_700_000_000_123L, position.getLong("timestamp"));
+        assertEquals(id, position.get("_id"));
+    }
+
+    @Test
+    void stringIdKeepsItsFormat() {
+        // String and binary ids sort differently, so the next page has to compare against the stored format.
+        UUID id = UUID.randomUUID();
+        Document position = MongoCurrencyTransactionPage.decodeToken(MongoCurrencyTransactionPage.encodeToken(2, 40, 5L, id.toString()));
+
+        assertEquals(id.toString(), position.get("_id"));
+    }
+
+    @Test
+    void tokensAreUrlSafe() {
+        String token = MongoCurrencyTransactionPage.encodeToken(Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, UUID.randomUUID());
+
+        assertFalse(token.contains("+") || token.contains("/") || token.contains("="));
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertThrows(IllegalArgumentException.class, () -> MongoCurrencyTransactionPage.decodeToken("not a token"));
+        assertThrows(IllegalArgumentException.class, () -> MongoCurrencyTransactionPage.decodeToken(encode("1:2:3")));
+        assertThrows(IllegalArgumentException.class, () -> MongoCurrencyTransactionPage.decodeToken(encode("1:2:x:s" + UUID.randomUUID())));
+        assertThrows(IllegalArgumentException.class, () -> MongoCurrencyTransactionPage.decodeToken(encode("1:2:3:bnot-a-uuid")));
+    }
+
+    private static String encode(String token) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+}
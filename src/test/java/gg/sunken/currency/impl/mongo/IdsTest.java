@@ -0,0 +1,105 @@
+package gg.sunken.currency.impl.mongo;
+
+import org.bson.BsonBinary;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdsTest {
+    private static final UUID LOW = UUID.fromString("7fffffff-ffff-ffff-ffff-ffffffffffff");
+    private static final UUID HIGH = UUID.fromString("80000000-0000-0000-0000-000000000000");
+
+    @AfterEach
+    void tearDown() {
+        Ids.format(Ids.Format.STRING);
+        Ids.migrated(false);
+    }
+
+    @Test
+    void readsEveryStoredFormat() {
+        UUID uuid = UUID.randomUUID();
+        BsonBinary binary = new BsonBinary(uuid, UuidRepresentation.STANDARD);
+
+        assertEquals(uuid, Ids.read(uuid));
+        assertEquals(uuid, Ids.read(uuid.toString()));
+        assertEquals(uuid, Ids.read(new BsonString(uuid.toString())));
+        assertEquals(uuid, Ids.read(binary));
+        assertEquals(uuid, Ids.read(new Binary(binary.getType(), binary.getData())));
+        assertThrows(IllegalArgumentException.class, () -> Ids.read(42));
+    }
+
+    @Test
+    void stringsSortBeforeBinaries() {
+        assertTrue(Ids.compare("ffffffff-ffff-ffff-ffff-ffffffffffff", UUID.fromString("00000000-0000-0000-0000-000000000000")) < 0);
+        assertTrue(Ids.compare(LOW, new BsonString(HIGH.toString())) > 0);
+    }
+
+    @Test
+    void binariesCompareByUnsignedBytes() {
+        // Signed comparison of the most significant bits would put HIGH first.
+        assertTrue(Ids.compare(LOW, HIGH) < 0);
+
+        List<Object> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(UUID.randomUUID());
+        }
+        ids.add(LOW);
+        ids.add(HIGH);
+
+        List<Object> expected = new ArrayList<>(ids);
+        expected.sort(Comparator.<Object, byte[]>comparing(id -> new BsonBinary((UUID) id, UuidRepresentation.STANDARD).getData(), Arrays::compareUnsigned));
+        ids.sort(Ids::compare);
+
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    void mixedIdsFollowBsonOrder() {
+        List<Object> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(UUID.randomUUID());
+            ids.add(UUID.randomUUID().toString());
+        }
+
+        ids.sort(Ids::compare);
+
+        int firstBinary = 0;
+        while (ids.get(firstBinary) instanceof String) {
+            firstBinary++;
+        }
+        for (int i = 1; i < firstBinary; i++) {
+            assertTrue(((String) ids.get(i - 1)).compareTo((String) ids.get(i)) < 0);
+        }
+        for (int i = firstBinary; i < ids.size(); i++) {
+            assertTrue(ids.get(i) instanceof UUID);
+        }
+        assertEquals(50, firstBinary);
+    }
+
+    @Test
+    void matchesBothFormatsOnlyWhileMixed() {
+        UUID uuid = UUID.randomUUID();
+        assertEquals(uuid.toString(), Ids.match(uuid));
+
+        Ids.format(Ids.Format.BINARY);
+        assertEquals(new Document("$in", List.of(uuid, uuid.toString())), Ids.match(uuid));
+        assertEquals(List.of(uuid, uuid.toString()), Ids.matchAll(List.of(uuid)));
+
+        Ids.migrated(true);
+        assertEquals(uuid, Ids.match(uuid));
+        assertEquals(List.of(uuid), Ids.matchAll(List.of(uuid)));
+    }
+}
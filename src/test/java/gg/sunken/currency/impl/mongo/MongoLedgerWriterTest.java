@@ -0,0 +1,189 @@
+package gg.sunken.currency.impl.mongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MongoLedgerWriterTest {
+    private static final String FIELD = "coins";
+    private static final int PRECISION = 2;
+
+    private MongoCollection<Document> users;
+    private MongoCollection<Document> transactions;
+    private MongoLedgerWriter writer;
+    private final List<List<WriteModel<Document>>> userWrites = new ArrayList<>();
+    private final List<List<WriteModel<Document>>> ledgerWrites = new ArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        Ids.format(Ids.Format.STRING);
+        users = mock(MongoCollection.class);
+        transactions = mock(MongoCollection.class);
+        succeed(users, userWrites);
+        succeed(transactions, ledgerWrites);
+        // The timer never fires during a test, every flush is explicit.
+        writer = new MongoLedgerWriter(FIELD, users, transactions, PRECISION, 1000, 3_600_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        succeed(users, userWrites);
+        succeed(transactions, ledgerWrites);
+        writer.close();
+    }
+
+    @Test
+    void coalescesDeltasPerUser() {
+        UUID user = UUID.randomUUID();
+        writer.enqueue(ledger(), user, 100);
+        writer.enqueue(ledger(), user, -30);
+        assertEquals(70, writer.pendingDelta(user));
+        assertEquals(2, writer.pendingCount());
+
+        writer.flush();
+
+        assertEquals(1, ledgerWrites.size());
+        assertEquals(2, ledgerWrites.get(0).size());
+        assertEquals(Map.of(user, 70L), increments(userWrites.get(0)));
+        assertEquals(0, writer.pendingDelta(user));
+        assertEquals(0, writer.pendingCount());
+    }
+
+    @Test
+    void rejectedLedgerEntryDoesNotMoveTheBalance() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        writer.enqueue(ledger(), first, 100);
+        writer.enqueue(ledger(), first, 50);
+        writer.enqueue(ledger(), second, 10);
+        when(transactions.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(bulkFailure(1));
+
+        writer.flush();
+
+        // Entry 1 is rejected for good, entry 2 is retried and its delta is applied with this flush.
+        assertEquals(Map.of(first, 100L, second, 10L), increments(userWrites.get(0)));
+        assertEquals(1, writer.pendingCount());
+        assertEquals(0, writer.pendingDelta(first));
+        assertEquals(0, writer.pendingDelta(second));
+
+        succeed(transactions, ledgerWrites);
+        writer.flush();
+
+        assertEquals(1, ledgerWrites.get(0).size());
+        assertEquals(1, userWrites.size());
+        assertEquals(0, writer.pendingCount());
+    }
+
+    @Test
+    void failedLedgerWriteRequeuesEverythingOnce() {
+        UUID user = UUID.randomUUID();
+        writer.enqueue(ledger(), user, 25);
+        when(transactions.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(new MongoException("connection lost"));
+
+        assertThrows(MongoException.class, writer::flush);
+
+        assertEquals(1, writer.pendingCount());
+        assertEquals(25, writer.pendingDelta(user));
+        assertTrue(userWrites.isEmpty());
+
+        succeed(transactions, ledgerWrites);
+        writer.flush();
+
+        assertEquals(Map.of(user, 25L), increments(userWrites.get(0)));
+        assertEquals(0, writer.pendingDelta(user));
+    }
+
+    @Test
+    void failedDeltaWriteIsCountedOnce() {
+        UUID user = UUID.randomUUID();
+        writer.enqueue(ledger(), user, 40);
+        when(users.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenThrow(new MongoException("connection lost"));
+
+        assertThrows(MongoException.class, writer::flush);
+
+        assertEquals(0, writer.pendingCount());
+        assertEquals(40, writer.pendingDelta(user));
+
+        succeed(users, userWrites);
+        writer.flush();
+
+        assertEquals(Map.of(user, 40L), increments(userWrites.get(0)));
+        assertEquals(0, writer.pendingDelta(user));
+    }
+
+    @Test
+    void partiallyFailedDeltaWriteOnlyRequeuesTheTail() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        writer.enqueue(ledger(), first, 5);
+        writer.enqueue(ledger(), second, 7);
+        List<List<WriteModel<Document>>> attempted = new ArrayList<>();
+        when(users.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(invocation -> {
+            attempted.add(new ArrayList<>(invocation.<List<WriteModel<Document>>>getArgument(0)));
+            throw bulkFailure(1);
+        });
+
+        assertThrows(MongoBulkWriteException.class, writer::flush);
+
+        UUID written = user(attempted.get(0).get(0));
+        UUID failed = user(attempted.get(0).get(1));
+        assertEquals(0, writer.pendingDelta(written));
+        assertEquals(written.equals(first) ? 7 : 5, writer.pendingDelta(failed));
+    }
+
+    private static Document ledger() {
+        return new Document("_id", UUID.randomUUID().toString());
+    }
+
+    private static void succeed(MongoCollection<Document> collection, List<List<WriteModel<Document>>> writes) {
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(invocation -> {
+            writes.add(new ArrayList<>(invocation.<List<WriteModel<Document>>>getArgument(0)));
+            return BulkWriteResult.unacknowledged();
+        });
+    }
+
+    private static MongoBulkWriteException bulkFailure(int index) {
+        BulkWriteError error = new BulkWriteError(11000, "E11000 duplicate key error", new BsonDocument(), index);
+        return new MongoBulkWriteException(BulkWriteResult.unacknowledged(), List.of(error), null, new ServerAddress(), Set.of());
+    }
+
+    private static Map<UUID, Long> increments(List<WriteModel<Document>> models) {
+        Map<UUID, Long> increments = new HashMap<>();
+        for (WriteModel<Document> model : models) {
+            Document update = (Document) ((UpdateOneModel<Document>) model).getUpdate();
+            increments.put(user(model), Decimals.toMinor(update.get("$inc", Document.class).get(FIELD), PRECISION));
+        }
+        return increments;
+    }
+
+    private static UUID user(WriteModel<Document> model) {
+        return Ids.read(((Document) ((UpdateOneModel<Document>) model).getFilter()).get("_id"));
+    }
+}